@@ -17,6 +17,7 @@ import custom.ubl.ProcessingType;
 import custom.ubl.UBLValidator;
 import custom.ubl.ValidationError;
 import custom.ubl.ValidationResult;
+import nomaubl.ProcessingResult;
 import java.awt.*;
 import java.awt.event.*;
 import java.io.File;
@@ -729,12 +730,12 @@ public class MainModern extends JFrame {
         chooser.setFileFilter(new javax.swing.filechooser.FileFilter() {
             @Override
             public boolean accept(File file) {
-                return file.isDirectory() || file.getName().endsWith(".xml");
+                return file.isDirectory() || file.getName().endsWith(".xml") || file.getName().endsWith(".xml.gz");
             }
 
             @Override
             public String getDescription() {
-                return "XML files (*.xml)";
+                return "XML files (*.xml, *.xml.gz)";
             }
         });
         
@@ -745,7 +746,9 @@ public class MainModern extends JFrame {
         if (chooser.showOpenDialog(this) == JFileChooser.APPROVE_OPTION) {
             File fileInput = chooser.getSelectedFile();
             txFileName.setText(fileInput.getAbsolutePath());
-            paramFile = FilenameUtils.getBaseName(fileInput.getName());
+            String name = fileInput.getName();
+            paramFile = name.endsWith(".xml.gz") ? name.substring(0, name.length() - ".xml.gz".length())
+                    : FilenameUtils.getBaseName(name);
             statusLabel.setText("Selected: " + fileInput.getName());
         }
     }
@@ -772,6 +775,9 @@ public class MainModern extends JFrame {
         bGenerateReport.setEnabled(false);
         
         SwingWorker<String, Void> worker = new SwingWorker<String, Void>() {
+            // Résultat du traitement : documents en quarantaine éventuels
+            private ProcessingResult runResult;
+
             @Override
             protected String doInBackground() throws Exception {
                 File file = new File(paramConfig);
@@ -782,7 +788,9 @@ public class MainModern extends JFrame {
                 pAppHome = resource.getProperty("appHome");
                 pProcessHome = resource.getProperty("processHome");
                 String pDirInput = replaceConstValue(resource.getProperty("dirInput"));
-                String inputFile = pDirInput + paramFile + ".xml";
+                // Spool compressé copié tel quel, décompressé à la lecture
+                String inputFile = pDirInput + paramFile
+                        + (txFileName.getText().endsWith(".gz") ? ".xml.gz" : ".xml");
 
                 FileUtils.copyFile(new File(txFileName.getText()), new File(inputFile));
 
@@ -810,7 +818,7 @@ public class MainModern extends JFrame {
                     System.setErr(ps);
                     
                     try {
-                        GenerateReport(template, paramFile, mode, "1", paramConfig, true);
+                        runResult = GenerateReport(template, paramFile, mode, "1", paramConfig, true);
                         System.out.flush();
                         System.err.flush();
                         System.setOut(oldOut);
@@ -822,7 +830,7 @@ public class MainModern extends JFrame {
                         return "ERROR:" + e.getMessage() + "\n" + baos.toString();
                     }
                 } else {
-                    GenerateReport(template, paramFile, mode, "1", paramConfig, true);
+                    runResult = GenerateReport(template, paramFile, mode, "1", paramConfig, true);
                     return "SUCCESS";
                 }
             }
@@ -886,6 +894,13 @@ public class MainModern extends JFrame {
                             statusLabel.setText("✓ Report generated successfully");
                             tableModelGenerateResults.addRow(new Object[]{"SUCCESS", "System", "", "Report generated successfully"});
                         }
+                        if (hasQuarantine()) {
+                            // Traitement terminé avec des documents en quarantaine
+                            for (String document : runResult.getQuarantined()) {
+                                tableModelGenerateResults.addRow(new Object[]{"WARNING", "Quarantine", "", document});
+                            }
+                            statusLabel.setText("⚠ " + runResult.getMessage());
+                        }
                         
                         // Adjust row heights dynamically based on content
                         for (int row = 0; row < tableGenerateResults.getRowCount(); row++) {
@@ -907,6 +922,12 @@ public class MainModern extends JFrame {
                             }
                             tableGenerateResults.setRowHeight(row, maxHeight);
                         }
+                    } else if (hasQuarantine()) {
+                        statusLabel.setText("⚠ " + runResult.getMessage());
+                        JOptionPane.showMessageDialog(MainModern.this,
+                            runResult.getMessage() + ":\n" + String.join("\n", runResult.getQuarantined()),
+                            "Completed with errors",
+                            JOptionPane.WARNING_MESSAGE);
                     } else {
                         statusLabel.setText("Report generated successfully");
                         infoBox("Report generated successfully", "SUCCESS");
@@ -920,6 +941,10 @@ public class MainModern extends JFrame {
                     bGenerateReport.setEnabled(true);
                 }
             }
+
+            private boolean hasQuarantine() {
+                return runResult != null && runResult.getStatus() == ProcessingResult.Status.COMPLETED_WITH_ERRORS;
+            }
         };
         
         worker.execute();
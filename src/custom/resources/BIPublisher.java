@@ -1,10 +1,24 @@
 package custom.resources;
 
+import custom.ubl.LogCatalog;
 import oracle.xdo.XDOException;
-import oracle.xdo.template.FOProcessor;
+import oracle.xdo.batch.DocumentProcessor;
 import oracle.xdo.template.RTFProcessor;
 
 import java.io.*;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.CodeSource;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
 
 public class BIPublisher {
     
@@ -41,45 +55,182 @@ public class BIPublisher {
         }
     }
 
-    /* Conversion d'un template RTF en XSL */
-    public static BIPTransformResult<ByteArrayOutputStream> convertRTFXSL(String inputRTF) {
+    // Espace de noms des fichiers de contrôle du bursting
+    private static final String XAPI_NS = "http://xmlns.oracle.com/oxp/xapi";
 
-        ByteArrayOutputStream xslOutStream = new ByteArrayOutputStream();
+    // Templates XSL déjà convertis, par empreinte du RTF et version de BI Publisher
+    private static final Map<String, XslTemplate> xslTemplates = new ConcurrentHashMap<>();
+    private static final String BIP_VERSION = bipVersion();
+
+    /* Conversion d'un template RTF en XSL, sans cache disque */
+    public static BIPTransformResult<XslTemplate> convertRTFXSL(String inputRTF) {
+        return convertRTFXSL(inputRTF, null);
+    }
+
+    /*
+     * Conversion d'un template RTF en XSL. Le résultat est gardé par empreinte
+     * SHA-256 du RTF et version de BI Publisher : en mémoire pour tous les
+     * travaux du processus et dans cacheDir pour les exécutions suivantes, la
+     * conversion n'est refaite que si le RTF ou BI Publisher change.
+     */
+    public static BIPTransformResult<XslTemplate> convertRTFXSL(String inputRTF, String cacheDir) {
         try {
-            FileInputStream fIs = new FileInputStream(inputRTF); // input RTF template
-            RTFProcessor rtfProcessor = new RTFProcessor(fIs);
-            rtfProcessor.setOutput(xslOutStream);
-            rtfProcessor.process();
-            return new BIPTransformResult<>(xslOutStream, 0, null);
-        } catch (FileNotFoundException | XDOException e) {
-            return new BIPTransformResult<>(xslOutStream, 1, e.getMessage());
+            byte[] rtf = Files.readAllBytes(Paths.get(inputRTF));
+            String key = templateKey(rtf);
+            XslTemplate template = xslTemplates.get(key);
+            if (template != null) {
+                return new BIPTransformResult<>(template, 0, null);
+            }
+
+            File cached = cacheDir == null || cacheDir.isEmpty() ? null : new File(cacheDir, key + ".xsl");
+            if (cached != null && cached.length() > 0) {
+                template = new XslTemplate(Files.readAllBytes(cached.toPath()), key);
+            } else {
+                ByteArrayOutputStream xslOutStream = new ByteArrayOutputStream();
+                RTFProcessor rtfProcessor = new RTFProcessor(new ByteArrayInputStream(rtf)); // input RTF template
+                rtfProcessor.setOutput(xslOutStream);
+                rtfProcessor.process();
+                template = new XslTemplate(xslOutStream.toByteArray(), key);
+                if (cached != null && xslOutStream.size() > 0) {
+                    store(cached, xslOutStream);
+                }
+            }
+            XslTemplate previous = xslTemplates.putIfAbsent(key, template);
+            return new BIPTransformResult<>(previous != null ? previous : template, 0, null);
+        } catch (IOException | XDOException e) {
+            return new BIPTransformResult<>(null, 1, e.getMessage());
         }
     }
 
-    // Mise en forme PDF via les API BI Publisher
-    public static Boolean convertToPDF(InputStream xmlStream, String outputPDF, ByteArrayOutputStream xslOutStream,
-            String xdoConfig, String setLocale) {
+    /* Empreinte SHA-256 de la version de BI Publisher et du RTF */
+    private static String templateKey(byte[] rtf) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(BIP_VERSION.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            StringBuilder key = new StringBuilder();
+            for (byte b : digest.digest(rtf)) {
+                key.append(String.format("%02x", b));
+            }
+            return key.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /* Version du manifeste, ou jar de BI Publisher (nom, taille, date) à défaut */
+    private static String bipVersion() {
+        Package bip = RTFProcessor.class.getPackage();
+        if (bip != null && bip.getImplementationVersion() != null) {
+            return bip.getImplementationVersion();
+        }
         try {
-            FOProcessor processor = new FOProcessor();
-
-            // input XML
-            processor.setData(xmlStream);
-            try ( // input XSL template
-                    ByteArrayInputStream xslInStream = new ByteArrayInputStream(xslOutStream.toByteArray())) {
-                processor.setTemplate(xslInStream);
-                // output PDF
-                processor.setOutput(outputPDF);
-                // Format de sortie
-                processor.setOutputFormat(FOProcessor.FORMAT_PDF);
+            CodeSource source = RTFProcessor.class.getProtectionDomain().getCodeSource();
+            if (source != null && source.getLocation() != null) {
+                File jar = new File(source.getLocation().toURI());
+                return jar.getName() + ":" + jar.length() + ":" + jar.lastModified();
+            }
+        } catch (URISyntaxException | SecurityException | IllegalArgumentException e) {
+            // Version inconnue : le cache dépend alors du seul RTF
+        }
+        return "unknown";
+    }
+
+    /* Ecriture atomique dans le cache, partagé entre processus ; une erreur n'arrête pas le travail */
+    private static void store(File cached, ByteArrayOutputStream xslOutStream) {
+        try {
+            Files.createDirectories(cached.getParentFile().toPath());
+            File tmp = File.createTempFile(cached.getName(), ".tmp", cached.getParentFile());
+            try (OutputStream out = new FileOutputStream(tmp)) {
+                xslOutStream.writeTo(out);
+            }
+            Files.move(tmp.toPath(), cached.toPath(), StandardCopyOption.ATOMIC_MOVE,
+                    StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            LogCatalog.xslCacheNotWritten(cached.getPath(), e.getMessage()).print(true);
+        }
+    }
+
+    /*
+     * Fichier de contrôle du moteur de bursting : un PDF par élément burstKey
+     * du spool, mis en forme par le template XSL-FO et écrit sous le nom
+     * outputPDF, où ${BALISE} est remplacé par la valeur de la balise
+     */
+    public static void writeBurstControl(String controlFile, String burstKey, String templateFO,
+            String outputPDF, String setLocale) throws IOException {
+        try (OutputStream out = new FileOutputStream(controlFile)) {
+            XMLStreamWriter xml = XMLOutputFactory.newInstance().createXMLStreamWriter(out, "UTF-8");
+            xml.writeStartDocument("UTF-8", "1.0");
+            xml.writeStartElement("xapi", "requestset", XAPI_NS);
+            xml.writeNamespace("xapi", XAPI_NS);
+            xml.writeStartElement("xapi", "request", XAPI_NS);
+            xml.writeAttribute("select", "//" + burstKey);
+
+            xml.writeStartElement("xapi", "delivery", XAPI_NS);
+            xml.writeEmptyElement("xapi", "filesystem", XAPI_NS);
+            xml.writeAttribute("id", "pdf");
+            xml.writeAttribute("output", outputPDF);
+            xml.writeEndElement();
+
+            xml.writeStartElement("xapi", "document", XAPI_NS);
+            xml.writeAttribute("output-type", "pdf");
+            xml.writeAttribute("delivery", "pdf");
+            xml.writeEmptyElement("xapi", "template", XAPI_NS);
+            xml.writeAttribute("type", "xsl-fo");
+            xml.writeAttribute("location", templateFO);
+            if (setLocale != null && !setLocale.isEmpty()) {
+                xml.writeAttribute("locale", setLocale);
+            }
+            xml.writeEndElement();
+
+            xml.writeEndElement();
+            xml.writeEndElement();
+            xml.writeEndDocument();
+            xml.close();
+        } catch (XMLStreamException e) {
+            throw new IOException(e.getMessage(), e);
+        }
+    }
+
+    /*
+     * Mise en forme PDF de tous les documents d'un spool en une passe du
+     * moteur de bursting : xdo.cfg, polices et template chargés une fois
+     */
+    public static BIPTransformResult<Void> burstToPDF(String inputXML, String controlFile, String tempDir,
+            String xdoConfig) {
+        // Spool compressé (.xml.gz) décompressé à la lecture
+        try (InputStream control = new FileInputStream(controlFile);
+                InputStream data = Tools.openInput(inputXML)) {
+            DocumentProcessor processor = new DocumentProcessor(control, data, tempDir);
+            if (xdoConfig != null && !xdoConfig.isEmpty()) {
                 processor.setConfig(xdoConfig);
-                processor.setLocale(setLocale);
-                // Traitement
-                processor.generate();
             }
+            processor.process();
+            return new BIPTransformResult<>(null, 0, null);
+        } catch (Exception e) {
+            return new BIPTransformResult<>(null, 1, e.getMessage());
+        }
+    }
 
+    // Mise en forme PDF via les API BI Publisher, xdo.cfg chargé une fois par processus
+    public static Boolean convertToPDF(InputStream xmlStream, String outputPDF, XslTemplate xslTemplate,
+            String xdoConfig, String setLocale) {
+        try {
+            RenderService.forConfig(xdoConfig, setLocale).render(xmlStream, xslTemplate, outputPDF);
+        } catch (IOException | XDOException e) {
+            return false;
+        }
+        return true;
+    }
+
+    // Mise en forme PDF en mémoire, sans fichier intermédiaire
+    public static Boolean convertToPDF(InputStream xmlStream, OutputStream output, XslTemplate xslTemplate,
+            String xdoConfig, String setLocale) {
+        try {
+            RenderService.forConfig(xdoConfig, setLocale).render(xmlStream, xslTemplate, output);
         } catch (IOException | XDOException e) {
             return false;
         }
         return true;
-    }    
+    }
 }
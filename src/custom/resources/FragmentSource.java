@@ -0,0 +1,25 @@
+/*
+ * Copyright (c) 2025 NOMANA-IT and/or its affiliates.
+ * All rights reserved. Use is subject to license terms.
+ *
+ * @author fblettner
+ */
+package custom.resources;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import javax.xml.stream.XMLStreamException;
+
+/**
+ * Source of burst fragments fed to the workers of a job: the spool file
+ * itself, or a shard of it in distributed mode.
+ */
+public interface FragmentSource extends Closeable {
+
+    /**
+     * @return next burst element as an UTF-8 XML document, read-only and
+     *         possibly a slice of a mapped file, null at the end
+     */
+    ByteBuffer next() throws IOException, XMLStreamException;
+}
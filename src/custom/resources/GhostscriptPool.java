@@ -0,0 +1,261 @@
+/*
+ * Copyright (c) 2025 NOMANA-IT and/or its affiliates.
+ * All rights reserved. Use is subject to license terms.
+ *
+ * @author fblettner
+ */
+package custom.resources;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.StringTokenizer;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Long-lived Ghostscript processes shared by the workers of the JVM
+ *
+ * Each process is started once from the cmdGS command, without -dBATCH and
+ * reading PostScript on its standard input. A PDF is post-processed by
+ * sending it the output file and the input file: no process is forked per
+ * invoice. A process that fails or dies is stopped and replaced at the next
+ * use, and the file is then processed by a one-shot Ghostscript command.
+ * When new processes keep failing (Ghostscript too old for the options of an
+ * interactive session for example), the pool falls back to one-shot
+ * commands for good.
+ */
+public final class GhostscriptPool {
+
+    // Marqueurs écrits par Ghostscript à la fin de chaque fichier
+    private static final String DONE = "%%NOMA-GS-DONE";
+    private static final String FAILED = "%%NOMA-GS-FAILED";
+    // Echecs de suite de processus neufs avant de renoncer au pool
+    private static final int MAX_START_FAILURES = 3;
+
+    // Un pool par commande Ghostscript, gardé pour toute la durée du processus
+    private static final Map<String, GhostscriptPool> pools = new ConcurrentHashMap<>();
+
+    static {
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> pools.values().forEach(GhostscriptPool::close)));
+    }
+
+    private final String cmdGS;
+    private final List<String> command;
+    private final File workDir;
+    private final BlockingQueue<Worker> idle = new LinkedBlockingQueue<>();
+    private final BlockingQueue<Integer> free = new LinkedBlockingQueue<>();
+    private final AtomicInteger startFailures = new AtomicInteger();
+
+    private GhostscriptPool(String cmdGS, int size, File workDir, String... permittedDirs) {
+        this.cmdGS = cmdGS;
+        this.command = interactiveCommand(cmdGS, permittedDirs);
+        this.workDir = workDir;
+        for (int i = 0; i < Math.max(1, size); i++) {
+            free.add(i);
+        }
+    }
+
+    /**
+     * @param cmdGS   Ghostscript command ending with -sOutputFile=
+     * @param size    Number of Ghostscript processes
+     * @param workDir       Directory for the scratch output of the processes
+     * @param permittedDirs Directories read and written by Ghostscript when
+     *                      cmdGS runs with -dSAFER
+     * @return pool of the command, created at the first call
+     */
+    public static GhostscriptPool forCommand(String cmdGS, int size, String workDir, String... permittedDirs) {
+        return pools.computeIfAbsent(cmdGS, c -> new GhostscriptPool(c, size, new File(workDir), permittedDirs));
+    }
+
+    /**
+     * Post-processes a PDF and publishes the result atomically
+     *
+     * @param inputPDF  PDF generated by BI Publisher
+     * @param outputPDF Published PDF
+     */
+    public void convert(String inputPDF, String outputPDF) throws IOException {
+        String tempPDF = outputPDF + ".tmp";
+        Worker worker = startFailures.get() < MAX_START_FAILURES ? take() : null;
+        boolean converted = false;
+        try {
+            converted = worker != null && worker.convert(inputPDF, tempPDF);
+        } finally {
+            if (worker != null) {
+                giveBack(worker, converted);
+            }
+        }
+        try {
+            if (!converted) {
+                // Processus indisponible ou en erreur : commande Ghostscript ponctuelle
+                Tools.executeGS(cmdGS + tempPDF + " " + inputPDF);
+            }
+            Tools.publish(tempPDF, outputPDF);
+        } catch (IOException e) {
+            // Pas de fichier partiel dans le jeu publié
+            Files.deleteIfExists(Paths.get(tempPDF));
+            throw e;
+        }
+    }
+
+    /* Processus libre, démarré si besoin ; null si Ghostscript ne démarre pas */
+    private Worker take() throws IOException {
+        try {
+            while (true) {
+                Worker worker = idle.poll();
+                if (worker != null) {
+                    return worker;
+                }
+                Integer slot = free.poll();
+                if (slot != null) {
+                    try {
+                        return new Worker(slot);
+                    } catch (IOException e) {
+                        free.add(slot);
+                        startFailures.incrementAndGet();
+                        return null;
+                    }
+                }
+                // Un processus arrêté libère sa place : nouvelle tentative régulière
+                worker = idle.poll(100, TimeUnit.MILLISECONDS);
+                if (worker != null) {
+                    return worker;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Ghostscript interrupted", e);
+        }
+    }
+
+    private void giveBack(Worker worker, boolean healthy) {
+        if (healthy) {
+            worker.used = true;
+            startFailures.set(0);
+            idle.add(worker);
+        } else {
+            if (!worker.used) {
+                startFailures.incrementAndGet();
+            }
+            worker.stop();
+            free.add(worker.slot);
+        }
+    }
+
+    /**
+     * Stops the Ghostscript processes
+     */
+    public void close() {
+        Worker worker;
+        while ((worker = idle.poll()) != null) {
+            worker.stop();
+        }
+    }
+
+    /*
+     * Options de cmdGS sans fichier de sortie ni fin automatique, lecture de
+     * l'entrée standard. En mode -dSAFER, les fichiers changent à chaque
+     * document : leurs répertoires sont autorisés au démarrage.
+     */
+    static List<String> interactiveCommand(String cmdGS, String... permittedDirs) {
+        List<String> args = new ArrayList<>();
+        StringTokenizer tokens = new StringTokenizer(cmdGS);
+        while (tokens.hasMoreTokens()) {
+            String token = tokens.nextToken();
+            if (token.equals("-dBATCH") || token.startsWith("-sOutputFile=") || token.equals("-o")) {
+                continue;
+            }
+            args.add(token);
+        }
+        if (args.contains("-dSAFER")) {
+            for (String dir : permittedDirs) {
+                String path = new File(dir).getAbsolutePath() + File.separator;
+                args.add("--permit-file-read=" + path);
+                args.add("--permit-file-write=" + path);
+            }
+        }
+        args.add("-dNOPROMPT");
+        args.add("-q");
+        args.add("-");
+        return args;
+    }
+
+    /* Chaîne PostScript : parenthèses et barres obliques inverses échappées */
+    static String psString(String value) {
+        StringBuilder ps = new StringBuilder("(");
+        for (char c : value.toCharArray()) {
+            if (c == '(' || c == ')' || c == '\\') {
+                ps.append('\\');
+            }
+            ps.append(c);
+        }
+        return ps.append(')').toString();
+    }
+
+    /* Processus Ghostscript dédié à un fichier à la fois */
+    private final class Worker {
+        private final int slot;
+        private final Process process;
+        private final Writer input;
+        private final BufferedReader output;
+        // Sortie neutre qui ferme le PDF produit à la fin de chaque fichier
+        private final String sink;
+        // Au moins un fichier traité sans erreur
+        private boolean used;
+
+        private Worker(int slot) throws IOException {
+            this.slot = slot;
+            Files.createDirectories(workDir.toPath());
+            this.sink = new File(workDir, "gs-" + slot + ".sink.pdf").getPath();
+            List<String> args = new ArrayList<>(command);
+            args.add(args.size() - 1, "-sOutputFile=" + sink);
+            this.process = new ProcessBuilder(args).redirectErrorStream(true).start();
+            this.input = new OutputStreamWriter(process.getOutputStream(), StandardCharsets.UTF_8);
+            this.output = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8));
+        }
+
+        private boolean convert(String inputPDF, String outputPDF) {
+            try {
+                input.write("{ << /OutputFile " + psString(outputPDF) + " >> setpagedevice "
+                        + psString(inputPDF) + " run } stopped\n"
+                        + "<< /OutputFile " + psString(sink) + " >> setpagedevice\n"
+                        + "{ (\\n" + FAILED + "\\n) } { (\\n" + DONE + "\\n) } ifelse print flush clear\n");
+                input.flush();
+                String line;
+                while ((line = output.readLine()) != null) {
+                    if (line.equals(DONE)) {
+                        return Files.size(Paths.get(outputPDF)) > 0;
+                    }
+                    if (line.equals(FAILED)) {
+                        return false;
+                    }
+                }
+                return false;
+            } catch (IOException e) {
+                return false;
+            }
+        }
+
+        private void stop() {
+            try {
+                input.write("quit\n");
+                input.flush();
+            } catch (IOException e) {
+                // Processus déjà arrêté
+            }
+            process.destroy();
+        }
+    }
+}
@@ -0,0 +1,384 @@
+/*
+ * Copyright (c) 2025 NOMANA-IT and/or its affiliates.
+ * All rights reserved. Use is subject to license terms.
+ *
+ * @author fblettner
+ */
+package custom.resources;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import javax.xml.stream.XMLStreamException;
+
+/**
+ * Memory-mapped splitter for burst spool files
+ * Maps the spool and returns each burst element as a read-only slice of the
+ * mapping: the invoice bytes are neither parsed nor copied before the
+ * workers read them, and the spool I/O is left to the OS page cache.
+ *
+ * The spool is scanned for tags only (comments, CDATA sections and
+ * processing instructions are skipped). Namespace declarations made above
+ * the burst element are added to the fragment root, in a copy of the
+ * fragment, only when the spool uses them. Spools that cannot be sliced as
+ * UTF-8 documents (compressed, other encodings, DOCTYPE, more than 2 GB) are
+ * read by the StAX SpoolSplitter instead.
+ */
+public class MappedSpoolSplitter implements FragmentSource {
+
+    private static final Pattern ENCODING = Pattern.compile("encoding\\s*=\\s*[\"']([^\"']+)[\"']");
+
+    private final FileChannel channel;
+    private final ByteBuffer spool;
+    private final byte[] burstKey;
+    // Déclarations xmlns des éléments ouverts au-dessus des fragments
+    private final Deque<Map<String, String>> namespaces = new ArrayDeque<>();
+    private int pos;
+    private int count;
+
+    private MappedSpoolSplitter(FileChannel channel, ByteBuffer spool, int start, String burstKey) {
+        this.channel = channel;
+        this.spool = spool;
+        this.pos = start;
+        this.burstKey = burstKey.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Opens a spool file for splitting, mapped when possible
+     *
+     * @param inputXML Path to the spool file
+     * @param burstKey Tag name of the burst element
+     */
+    public static FragmentSource open(String inputXML, String burstKey) throws IOException, XMLStreamException {
+        if (inputXML.endsWith(Tools.GZIP_SUFFIX)) {
+            return new SpoolSplitter(inputXML, burstKey);
+        }
+        FileChannel channel = FileChannel.open(Paths.get(inputXML), StandardOpenOption.READ);
+        boolean mapped = false;
+        try {
+            if (channel.size() <= Integer.MAX_VALUE) {
+                ByteBuffer spool = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                int start = prolog(spool);
+                if (start >= 0) {
+                    mapped = true;
+                    return new MappedSpoolSplitter(channel, spool, start, burstKey);
+                }
+            }
+        } finally {
+            if (!mapped) {
+                channel.close();
+            }
+        }
+        return new SpoolSplitter(inputXML, burstKey);
+    }
+
+    /*
+     * Vérification du prologue : position de début de lecture, -1 si le
+     * spool doit être lu par le parseur StAX
+     */
+    private static int prolog(ByteBuffer spool) {
+        int limit = spool.limit();
+        int start = 0;
+        if (limit >= 3 && (spool.get(0) & 0xFF) == 0xEF && (spool.get(1) & 0xFF) == 0xBB
+                && (spool.get(2) & 0xFF) == 0xBF) {
+            start = 3;
+        } else if (limit >= 2 && (spool.get(0) == 0 || spool.get(1) == 0 || (spool.get(0) & 0xFF) >= 0xFE)) {
+            // UTF-16 ou UTF-32
+            return -1;
+        }
+        int i = start;
+        while (i < limit) {
+            byte b = spool.get(i);
+            if (b != '<') {
+                i++;
+                continue;
+            }
+            if (startsWith(spool, i, "<?xml")) {
+                int end = indexOf(spool, "?>", i);
+                if (end < 0) {
+                    return -1;
+                }
+                Matcher m = ENCODING.matcher(ascii(spool, i, end));
+                if (m.find() && !m.group(1).matches("(?i)UTF-?8|US-ASCII|ASCII")) {
+                    return -1;
+                }
+                i = end + 2;
+            } else if (startsWith(spool, i, "<!DOCTYPE")) {
+                // Entités possibles dans la DTD
+                return -1;
+            } else if (startsWith(spool, i, "<!--")) {
+                int end = indexOf(spool, "-->", i + 4);
+                if (end < 0) {
+                    return -1;
+                }
+                i = end + 3;
+            } else if (startsWith(spool, i, "<?")) {
+                int end = indexOf(spool, "?>", i + 2);
+                if (end < 0) {
+                    return -1;
+                }
+                i = end + 2;
+            } else {
+                // Elément racine
+                return start;
+            }
+        }
+        return start;
+    }
+
+    /**
+     * Reads the spool up to the next burst element
+     *
+     * @return the burst element as an UTF-8 XML document, null at end of file
+     */
+    @Override
+    public ByteBuffer next() throws XMLStreamException {
+        while (true) {
+            int lt = indexOf(spool, (byte) '<', pos);
+            if (lt < 0) {
+                return null;
+            }
+            int skip = skipMarkup(lt);
+            if (skip >= 0) {
+                pos = skip;
+                continue;
+            }
+            if (at(lt + 1) == '/') {
+                if (!namespaces.isEmpty()) {
+                    namespaces.pop();
+                }
+                pos = tagEnd(lt) + 1;
+                continue;
+            }
+            int gt = tagEnd(lt);
+            boolean empty = at(gt - 1) == '/';
+            if (isBurstKey(lt + 1)) {
+                count++;
+                pos = empty ? gt + 1 : elementEnd(gt + 1);
+                return fragment(lt, gt, pos);
+            }
+            if (!empty) {
+                namespaces.push(declarations(lt, gt));
+            }
+            pos = gt + 1;
+        }
+    }
+
+    /**
+     * @return number of fragments read so far
+     */
+    public int getCount() {
+        return count;
+    }
+
+    @Override
+    public void close() throws IOException {
+        // La projection reste valide pour les fragments en cours de traitement
+        channel.close();
+    }
+
+    /* Fin de l'élément burst : les éléments burst imbriqués restent dans le fragment */
+    private int elementEnd(int from) throws XMLStreamException {
+        int depth = 1;
+        int p = from;
+        while (true) {
+            int lt = indexOf(spool, (byte) '<', p);
+            if (lt < 0) {
+                throw new XMLStreamException("Unexpected end of spool in element "
+                        + new String(burstKey, StandardCharsets.UTF_8));
+            }
+            int skip = skipMarkup(lt);
+            if (skip >= 0) {
+                p = skip;
+                continue;
+            }
+            int gt = tagEnd(lt);
+            if (at(lt + 1) == '/') {
+                if (isBurstKey(lt + 2) && --depth == 0) {
+                    return gt + 1;
+                }
+            } else if (isBurstKey(lt + 1) && at(gt - 1) != '/') {
+                depth++;
+            }
+            p = gt + 1;
+        }
+    }
+
+    /* Commentaire, CDATA ou instruction : position suivante, -1 pour une balise */
+    private int skipMarkup(int lt) throws XMLStreamException {
+        String end;
+        if (startsWith(spool, lt, "<!--")) {
+            end = "-->";
+        } else if (startsWith(spool, lt, "<![CDATA[")) {
+            end = "]]>";
+        } else if (at(lt + 1) == '?' || at(lt + 1) == '!') {
+            end = at(lt + 1) == '?' ? "?>" : ">";
+        } else {
+            return -1;
+        }
+        int i = indexOf(spool, end, lt + 2);
+        if (i < 0) {
+            throw new XMLStreamException("Unexpected end of spool at offset " + lt);
+        }
+        return i + end.length();
+    }
+
+    /* Position du '>' fermant la balise, hors valeurs d'attributs */
+    private int tagEnd(int lt) throws XMLStreamException {
+        byte quote = 0;
+        for (int i = lt + 1; i < spool.limit(); i++) {
+            byte b = spool.get(i);
+            if (quote != 0) {
+                if (b == quote) {
+                    quote = 0;
+                }
+            } else if (b == '"' || b == '\'') {
+                quote = b;
+            } else if (b == '>') {
+                return i;
+            }
+        }
+        throw new XMLStreamException("Unexpected end of spool at offset " + lt);
+    }
+
+    private boolean isBurstKey(int i) {
+        if (i + burstKey.length >= spool.limit()) {
+            return false;
+        }
+        for (int k = 0; k < burstKey.length; k++) {
+            if (spool.get(i + k) != burstKey[k]) {
+                return false;
+            }
+        }
+        byte b = spool.get(i + burstKey.length);
+        return b == '>' || b == '/' || isSpace(b);
+    }
+
+    /* Attributs xmlns d'une balise ouvrante, par nom d'attribut */
+    private Map<String, String> declarations(int lt, int gt) {
+        Map<String, String> declared = new LinkedHashMap<>();
+        int i = lt + 1;
+        while (i < gt && !isSpace(spool.get(i)) && spool.get(i) != '/') {
+            i++;
+        }
+        while (i < gt) {
+            while (i < gt && (isSpace(spool.get(i)) || spool.get(i) == '/')) {
+                i++;
+            }
+            int nameStart = i;
+            while (i < gt && spool.get(i) != '=' && !isSpace(spool.get(i))) {
+                i++;
+            }
+            String name = utf8(nameStart, i);
+            while (i < gt && spool.get(i) != '"' && spool.get(i) != '\'') {
+                i++;
+            }
+            if (i >= gt) {
+                break;
+            }
+            byte quote = spool.get(i);
+            int valueEnd = i + 1;
+            while (valueEnd < gt && spool.get(valueEnd) != quote) {
+                valueEnd++;
+            }
+            if (name.equals("xmlns") || name.startsWith("xmlns:")) {
+                declared.put(name, utf8(nameStart, valueEnd + 1));
+            }
+            i = valueEnd + 1;
+        }
+        return declared;
+    }
+
+    /* Tranche du spool, copiée seulement pour ajouter les espaces de noms hérités */
+    private ByteBuffer fragment(int lt, int gt, int end) {
+        Map<String, String> inherited = new LinkedHashMap<>();
+        Iterator<Map<String, String>> it = namespaces.descendingIterator();
+        while (it.hasNext()) {
+            inherited.putAll(it.next());
+        }
+        if (!inherited.isEmpty()) {
+            inherited.keySet().removeAll(declarations(lt, gt).keySet());
+        }
+        if (inherited.isEmpty()) {
+            return spool.slice(lt, end - lt);
+        }
+
+        int nameEnd = lt + 1 + burstKey.length;
+        ByteArrayOutputStream out = new ByteArrayOutputStream(end - lt + 256);
+        copy(out, lt, nameEnd);
+        for (String declaration : inherited.values()) {
+            out.write(' ');
+            out.writeBytes(declaration.getBytes(StandardCharsets.UTF_8));
+        }
+        copy(out, nameEnd, end);
+        return ByteBuffer.wrap(out.toByteArray()).asReadOnlyBuffer();
+    }
+
+    private void copy(ByteArrayOutputStream out, int from, int to) {
+        byte[] bytes = new byte[to - from];
+        spool.get(from, bytes);
+        out.writeBytes(bytes);
+    }
+
+    private byte at(int i) {
+        return i < spool.limit() ? spool.get(i) : 0;
+    }
+
+    private String utf8(int from, int to) {
+        byte[] bytes = new byte[to - from];
+        spool.get(from, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static String ascii(ByteBuffer buffer, int from, int to) {
+        byte[] bytes = new byte[to - from];
+        buffer.get(from, bytes);
+        return new String(bytes, StandardCharsets.ISO_8859_1);
+    }
+
+    private static boolean isSpace(byte b) {
+        return b == ' ' || b == '\t' || b == '\n' || b == '\r';
+    }
+
+    private static boolean startsWith(ByteBuffer buffer, int i, String prefix) {
+        if (i + prefix.length() > buffer.limit()) {
+            return false;
+        }
+        for (int k = 0; k < prefix.length(); k++) {
+            if (buffer.get(i + k) != prefix.charAt(k)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int indexOf(ByteBuffer buffer, byte b, int from) {
+        for (int i = from; i < buffer.limit(); i++) {
+            if (buffer.get(i) == b) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static int indexOf(ByteBuffer buffer, String s, int from) {
+        byte first = (byte) s.charAt(0);
+        for (int i = indexOf(buffer, first, from); i >= 0; i = indexOf(buffer, first, i + 1)) {
+            if (startsWith(buffer, i, s)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
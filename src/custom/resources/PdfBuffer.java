@@ -0,0 +1,115 @@
+/*
+ * Copyright (c) 2025 NOMANA-IT and/or its affiliates.
+ * All rights reserved. Use is subject to license terms.
+ *
+ * @author fblettner
+ */
+package custom.resources;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Base64;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * PDF rendered in memory, in a buffer reused from one invoice to the next
+ *
+ * The PDF is written once to its published file and encoded to Base64
+ * directly into the UBL output, without being read back from disk. Buffers
+ * are given back to a pool once the invoice is finished; buffers grown over
+ * MAX_POOLED_BYTES by an unusually large PDF are left to the garbage
+ * collector instead of being kept for the whole run.
+ */
+public final class PdfBuffer extends ByteArrayOutputStream {
+
+    private static final int INITIAL_BYTES = 256 * 1024;
+    private static final int MAX_POOLED_BYTES = 16 * 1024 * 1024;
+    private static final int MAX_POOLED = 4 * Runtime.getRuntime().availableProcessors();
+
+    private static final Queue<PdfBuffer> pool = new ConcurrentLinkedQueue<>();
+    private static final AtomicInteger pooled = new AtomicInteger();
+
+    private PdfBuffer() {
+        super(INITIAL_BYTES);
+    }
+
+    /**
+     * @return empty buffer, taken from the pool when one is free
+     */
+    public static PdfBuffer acquire() {
+        PdfBuffer buffer = pool.poll();
+        if (buffer == null) {
+            return new PdfBuffer();
+        }
+        pooled.decrementAndGet();
+        return buffer;
+    }
+
+    /**
+     * Gives the buffer back to the pool, its content must no longer be used
+     */
+    public void release() {
+        reset();
+        if (buf.length > MAX_POOLED_BYTES) {
+            return;
+        }
+        if (pooled.incrementAndGet() > MAX_POOLED) {
+            // Pool plein : buffer laissé au ramasse-miettes
+            pooled.decrementAndGet();
+            return;
+        }
+        pool.offer(this);
+    }
+
+    /**
+     * @return new stream on the PDF, without copy
+     */
+    public synchronized InputStream openStream() {
+        return new ByteArrayInputStream(buf, 0, count);
+    }
+
+    /**
+     * Writes the PDF to its published file: temporary file in the same
+     * directory, then atomic rename
+     */
+    public synchronized void publish(String target) throws IOException {
+        Path to = Paths.get(target);
+        Path tmp = to.resolveSibling(to.getFileName() + ".tmp");
+        try (OutputStream out = Files.newOutputStream(tmp)) {
+            out.write(buf, 0, count);
+        }
+        Files.move(tmp, to, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Writes the PDF encoded in Base64, on one line, without closing the
+     * output
+     */
+    public synchronized void writeBase64(OutputStream out) throws IOException {
+        OutputStream base64 = Base64.getEncoder().wrap(new FilterOutputStream(out) {
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                out.write(b, off, len);
+            }
+
+            @Override
+            public void close() throws IOException {
+                // La sortie UBL continue après la pièce jointe
+                flush();
+            }
+        });
+        base64.write(buf, 0, count);
+        // Complément final (=) de l'encodage
+        base64.close();
+    }
+}
@@ -0,0 +1,280 @@
+/*
+ * Copyright (c) 2025 NOMANA-IT and/or its affiliates.
+ * All rights reserved. Use is subject to license terms.
+ *
+ * @author fblettner
+ */
+package custom.resources;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import javax.xml.XMLConstants;
+import javax.xml.parsers.DocumentBuilderFactory;
+import oracle.xdo.XDOException;
+import oracle.xdo.template.FOProcessor;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+import custom.ubl.LogCatalog;
+
+/**
+ * PDF rendering with the BI Publisher configuration loaded once per JVM
+ *
+ * The xdo.cfg file is parsed once into properties (configuration properties
+ * and fonts, with their file checked once) instead of being read again by
+ * every FOProcessor, and is loaded again only when the file changes. Each
+ * thread works on its own copy of these properties, so the workers never
+ * share processor state. A configuration holding any other setting is
+ * still read by each processor, so no setting is lost. The time spent preparing the processors and the
+ * time spent in the layout are measured for the run logs.
+ */
+public final class RenderService {
+
+    // Un service par fichier xdo.cfg et par locale
+    private static final Map<String, RenderService> services = new ConcurrentHashMap<>();
+
+    // Mesures cumulées de tous les services du processus
+    private static final LongAdder documents = new LongAdder();
+    private static final LongAdder setupNanos = new LongAdder();
+    private static final LongAdder layoutNanos = new LongAdder();
+    private static final LongAdder loads = new LongAdder();
+    private static final LongAdder loadNanos = new LongAdder();
+
+    private final String xdoConfig;
+    private final String locale;
+    private final long lastModified;
+    // null si xdo.cfg ne peut pas être lu ici : chaque processeur le lit alors lui-même
+    private final Properties config;
+    private final ThreadLocal<Properties> local;
+
+    private RenderService(String xdoConfig, String locale) {
+        long begin = System.nanoTime();
+        this.xdoConfig = xdoConfig;
+        this.locale = locale;
+        this.lastModified = new File(xdoConfig).lastModified();
+        this.config = load(xdoConfig);
+        this.local = ThreadLocal.withInitial(() -> {
+            Properties copy = new Properties();
+            copy.putAll(config);
+            return copy;
+        });
+        loads.increment();
+        loadNanos.add(System.nanoTime() - begin);
+    }
+
+    /**
+     * @param xdoConfig BI Publisher configuration file (xdo.cfg)
+     * @param locale    Locale of the documents
+     * @return service of the configuration, loaded again if the file has changed
+     */
+    public static RenderService forConfig(String xdoConfig, String locale) {
+        String key = new File(xdoConfig).getAbsolutePath() + "|" + locale;
+        long lastModified = new File(xdoConfig).lastModified();
+        RenderService service = services.get(key);
+        if (service != null && service.lastModified == lastModified) {
+            return service;
+        }
+        return services.compute(key, (k, current) -> current != null && current.lastModified == lastModified
+                ? current
+                : new RenderService(xdoConfig, locale));
+    }
+
+    /**
+     * Renders a PDF from the XML data and the XSL-FO template
+     *
+     * @param xmlStream   XML data of the document
+     * @param xslTemplate XSL-FO template, shared without copy
+     * @param outputPDF   Generated PDF file
+     */
+    public void render(InputStream xmlStream, XslTemplate xslTemplate, String outputPDF)
+            throws IOException, XDOException {
+        FOProcessor processor = new FOProcessor();
+        processor.setOutput(outputPDF);
+        render(processor, xmlStream, xslTemplate);
+    }
+
+    /**
+     * Renders a PDF in memory, without file
+     *
+     * @param xmlStream   XML data of the document
+     * @param xslTemplate XSL-FO template, shared without copy
+     * @param output      Generated PDF
+     */
+    public void render(InputStream xmlStream, XslTemplate xslTemplate, OutputStream output)
+            throws IOException, XDOException {
+        FOProcessor processor = new FOProcessor();
+        processor.setOutput(output);
+        render(processor, xmlStream, xslTemplate);
+    }
+
+    private void render(FOProcessor processor, InputStream xmlStream, XslTemplate xslTemplate)
+            throws IOException, XDOException {
+        long begin = System.nanoTime();
+        try (InputStream xslInStream = xslTemplate.openStream()) {
+            processor.setData(xmlStream);
+            processor.setTemplate(xslInStream);
+            processor.setOutputFormat(FOProcessor.FORMAT_PDF);
+            if (config != null) {
+                processor.setConfig(local.get());
+            } else {
+                processor.setConfig(xdoConfig);
+            }
+            processor.setLocale(locale);
+            long layout = System.nanoTime();
+            setupNanos.add(layout - begin);
+
+            processor.generate();
+            layoutNanos.add(System.nanoTime() - layout);
+            documents.increment();
+        }
+    }
+
+    /**
+     * @return rendering measures of the process since its start
+     */
+    public static Metrics metrics() {
+        return new Metrics(documents.sum(), setupNanos.sum(), layoutNanos.sum(), loads.sum(), loadNanos.sum());
+    }
+
+    /*
+     * Propriétés FOProcessor équivalentes à xdo.cfg : propriétés telles quelles,
+     * polices sous la forme font.famille.style.graisse = truetype.chemin. Tout
+     * autre réglage (font-substitute, section limitée à une locale, section
+     * inconnue) ne peut pas être traduit : null, xdo.cfg est alors laissé à
+     * BI Publisher pour ne rien perdre.
+     */
+    static Properties load(String xdoConfig) {
+        File file = new File(xdoConfig);
+        if (!file.isFile()) {
+            return null;
+        }
+        try {
+            DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+            factory.setNamespaceAware(true);
+            Element root = factory.newDocumentBuilder().parse(file).getDocumentElement();
+            Properties properties = new Properties();
+            for (Node node = root.getFirstChild(); node != null; node = node.getNextSibling()) {
+                if (!(node instanceof Element)) {
+                    continue;
+                }
+                Element section = (Element) node;
+                boolean fonts = "fonts".equals(section.getLocalName());
+                if (!(fonts || "properties".equals(section.getLocalName())) || !onlyAttributes(section)) {
+                    return null;
+                }
+                for (Node child = section.getFirstChild(); child != null; child = child.getNextSibling()) {
+                    if (!(child instanceof Element)) {
+                        continue;
+                    }
+                    Element element = (Element) child;
+                    if (!fonts && "property".equals(element.getLocalName()) && onlyAttributes(element, "name")) {
+                        properties.setProperty(element.getAttribute("name"), element.getTextContent().trim());
+                    } else if (fonts && "font".equals(element.getLocalName())
+                            && onlyAttributes(element, "family", "style", "weight")) {
+                        String font = font(element);
+                        if (font == null) {
+                            return null;
+                        }
+                        properties.setProperty("font." + element.getAttribute("family") + "."
+                                + element.getAttribute("style") + "." + element.getAttribute("weight"), font);
+                    } else {
+                        return null;
+                    }
+                }
+            }
+            return properties;
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    /* Police TrueType seule, fichier vérifié une fois au chargement de la configuration */
+    private static String font(Element font) {
+        String truetype = null;
+        for (Node node = font.getFirstChild(); node != null; node = node.getNextSibling()) {
+            if (!(node instanceof Element)) {
+                continue;
+            }
+            Element element = (Element) node;
+            if (truetype != null || !"truetype".equals(element.getLocalName()) || !onlyAttributes(element, "path")) {
+                return null;
+            }
+            String path = element.getAttribute("path");
+            if (!new File(path).isFile()) {
+                LogCatalog.fontNotFound(path).print(true);
+            }
+            truetype = "truetype." + path;
+        }
+        return truetype;
+    }
+
+    /* Attributs tous traduits, déclarations d'espaces de noms mises à part */
+    private static boolean onlyAttributes(Element element, String... names) {
+        NamedNodeMap attributes = element.getAttributes();
+        for (int i = 0; i < attributes.getLength(); i++) {
+            Node attribute = attributes.item(i);
+            if (!XMLConstants.XMLNS_ATTRIBUTE_NS_URI.equals(attribute.getNamespaceURI())
+                    && !Arrays.asList(names).contains(attribute.getLocalName())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Rendering measures: processor setup and layout
+     */
+    public static final class Metrics {
+        private final long documents;
+        private final long setupNanos;
+        private final long layoutNanos;
+        private final long loads;
+        private final long loadNanos;
+
+        private Metrics(long documents, long setupNanos, long layoutNanos, long loads, long loadNanos) {
+            this.documents = documents;
+            this.setupNanos = setupNanos;
+            this.layoutNanos = layoutNanos;
+            this.loads = loads;
+            this.loadNanos = loadNanos;
+        }
+
+        /**
+         * @return measures taken since an earlier snapshot
+         */
+        public Metrics since(Metrics earlier) {
+            return new Metrics(documents - earlier.documents, setupNanos - earlier.setupNanos,
+                    layoutNanos - earlier.layoutNanos, loads - earlier.loads, loadNanos - earlier.loadNanos);
+        }
+
+        public long getDocuments() {
+            return documents;
+        }
+
+        public long getSetupMs() {
+            return setupNanos / 1_000_000;
+        }
+
+        public long getLayoutMs() {
+            return layoutNanos / 1_000_000;
+        }
+
+        /**
+         * @return number of xdo.cfg loads
+         */
+        public long getLoads() {
+            return loads;
+        }
+
+        public long getLoadMs() {
+            return loadNanos / 1_000_000;
+        }
+    }
+}
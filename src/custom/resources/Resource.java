@@ -34,4 +34,13 @@ public class Resource  implements Entry{
     public String getProperty(String name) {
         return properties.get(name).getValue();
     }
+
+    /* Valeur d'une propriété optionnelle, valeur par défaut si absente ou vide */
+    public String getProperty(String name, String defaultValue) {
+        Property property = properties.get(name);
+        if (property == null || property.getValue() == null || property.getValue().trim().isEmpty()) {
+            return defaultValue;
+        }
+        return property.getValue();
+    }
 }
@@ -0,0 +1,186 @@
+/*
+ * Copyright (c) 2025 NOMANA-IT and/or its affiliates.
+ * All rights reserved. Use is subject to license terms.
+ *
+ * @author fblettner
+ */
+package custom.resources;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
+
+/**
+ * Streaming splitter for burst spool files
+ * Reads the spool with StAX and returns one self-contained XML document per
+ * burst element, so the spool is never loaded in memory as a whole.
+ *
+ * Namespace declarations made above the burst element are copied on the
+ * fragment root. A burst element nested inside another one stays part of
+ * the enclosing fragment.
+ */
+public class SpoolSplitter implements FragmentSource {
+
+    private static final XMLInputFactory inputFactory = XMLInputFactory.newInstance();
+    private static final XMLOutputFactory outputFactory = XMLOutputFactory.newInstance();
+
+    private final InputStream input;
+    private final XMLStreamReader reader;
+    private final String burstKey;
+    // Espaces de noms déclarés par les éléments ouverts au-dessus des fragments
+    private final Deque<Map<String, String>> namespaces = new ArrayDeque<>();
+    private int count;
+
+    /**
+     * Opens a spool file for splitting
+     *
+     * @param inputXML Path to the spool file
+     * @param burstKey Tag name of the burst element
+     */
+    public SpoolSplitter(String inputXML, String burstKey) throws IOException, XMLStreamException {
+        this.input = new BufferedInputStream(Tools.openInput(inputXML), 64 * 1024);
+        this.reader = inputFactory.createXMLStreamReader(input);
+        this.burstKey = burstKey;
+    }
+
+    /**
+     * Reads the spool up to the next burst element
+     *
+     * @return the burst element as an UTF-8 XML document, null at end of file
+     */
+    @Override
+    public ByteBuffer next() throws XMLStreamException {
+        while (reader.hasNext()) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                if (burstKey.equals(qualifiedName())) {
+                    count++;
+                    return ByteBuffer.wrap(copyFragment()).asReadOnlyBuffer();
+                }
+                Map<String, String> declared = new LinkedHashMap<>();
+                for (int i = 0; i < reader.getNamespaceCount(); i++) {
+                    declared.put(nullToEmpty(reader.getNamespacePrefix(i)), nullToEmpty(reader.getNamespaceURI(i)));
+                }
+                namespaces.push(declared);
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                namespaces.pop();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return number of fragments read so far
+     */
+    public int getCount() {
+        return count;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            reader.close();
+        } catch (XMLStreamException e) {
+            // Fermeture du flux ci-dessous
+        }
+        input.close();
+    }
+
+    /* Copie de l'élément courant et de son contenu dans un document autonome */
+    private byte[] copyFragment() throws XMLStreamException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(8192);
+        XMLStreamWriter writer = outputFactory.createXMLStreamWriter(out, "UTF-8");
+        writer.writeStartDocument("UTF-8", "1.0");
+
+        int depth = 0;
+        while (true) {
+            switch (reader.getEventType()) {
+                case XMLStreamConstants.START_ELEMENT:
+                    writeStartElement(writer, depth == 0);
+                    depth++;
+                    break;
+                case XMLStreamConstants.END_ELEMENT:
+                    writer.writeEndElement();
+                    depth--;
+                    break;
+                case XMLStreamConstants.CHARACTERS:
+                case XMLStreamConstants.SPACE:
+                    writer.writeCharacters(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+                    break;
+                case XMLStreamConstants.CDATA:
+                    writer.writeCData(reader.getText());
+                    break;
+                case XMLStreamConstants.COMMENT:
+                    writer.writeComment(reader.getText());
+                    break;
+                case XMLStreamConstants.PROCESSING_INSTRUCTION:
+                    writer.writeProcessingInstruction(reader.getPITarget(), reader.getPIData());
+                    break;
+                default:
+                    break;
+            }
+            if (depth == 0) {
+                break;
+            }
+            reader.next();
+        }
+
+        writer.writeEndDocument();
+        writer.close();
+        return out.toByteArray();
+    }
+
+    private void writeStartElement(XMLStreamWriter writer, boolean root) throws XMLStreamException {
+        writer.writeStartElement(nullToEmpty(reader.getPrefix()), reader.getLocalName(),
+                nullToEmpty(reader.getNamespaceURI()));
+
+        Map<String, String> declared = new LinkedHashMap<>();
+        if (root) {
+            // Déclarations héritées, de la plus externe à la plus interne
+            Iterator<Map<String, String>> it = namespaces.descendingIterator();
+            while (it.hasNext()) {
+                declared.putAll(it.next());
+            }
+        }
+        for (int i = 0; i < reader.getNamespaceCount(); i++) {
+            declared.put(nullToEmpty(reader.getNamespacePrefix(i)), nullToEmpty(reader.getNamespaceURI(i)));
+        }
+        for (Map.Entry<String, String> ns : declared.entrySet()) {
+            if (ns.getKey().isEmpty()) {
+                writer.writeDefaultNamespace(ns.getValue());
+            } else {
+                writer.writeNamespace(ns.getKey(), ns.getValue());
+            }
+        }
+
+        for (int i = 0; i < reader.getAttributeCount(); i++) {
+            String nsURI = reader.getAttributeNamespace(i);
+            if (nsURI == null || nsURI.isEmpty()) {
+                writer.writeAttribute(reader.getAttributeLocalName(i), reader.getAttributeValue(i));
+            } else {
+                writer.writeAttribute(nullToEmpty(reader.getAttributePrefix(i)), nsURI,
+                        reader.getAttributeLocalName(i), reader.getAttributeValue(i));
+            }
+        }
+    }
+
+    /* Nom qualifié de l'élément courant, comme getElementsByTagName */
+    private String qualifiedName() {
+        String prefix = reader.getPrefix();
+        return (prefix == null || prefix.isEmpty()) ? reader.getLocalName() : prefix + ":" + reader.getLocalName();
+    }
+
+    private static String nullToEmpty(String value) {
+        return value == null ? "" : value;
+    }
+}
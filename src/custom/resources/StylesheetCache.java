@@ -0,0 +1,218 @@
+/*
+ * Copyright (c) 2025 NOMANA-IT and/or its affiliates.
+ * All rights reserved. Use is subject to license terms.
+ *
+ * @author fblettner
+ */
+package custom.resources;
+
+import java.io.File;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import javax.xml.transform.Source;
+import javax.xml.transform.Templates;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerConfigurationException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.URIResolver;
+import javax.xml.transform.stream.StreamSource;
+
+/**
+ * Compiled stylesheets shared by all the transformations of the process
+ *
+ * Each XSL file is compiled once per XSLT engine into a thread-safe
+ * Templates, kept as long as the file and the stylesheets it includes or
+ * imports keep the same last-modified time: a stylesheet changed on disk
+ * is compiled again at its next use. Transformers
+ * are not thread-safe, so each worker borrows one from the pool of the
+ * stylesheet and gives it back, reset, once its transformation is done.
+ */
+public final class StylesheetCache {
+
+    public enum Engine {
+        // Moteur JAXP par défaut (XSLT 1.0)
+        DEFAULT,
+        // Saxon, pour les feuilles XSLT 2.0 (UBL, Schematron)
+        SAXON
+    }
+
+    private static final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    // Fabriques utilisées uniquement sous le verrou de compilation
+    private static final Map<Engine, TransformerFactory> factories = new ConcurrentHashMap<>();
+
+    private StylesheetCache() {
+    }
+
+    /**
+     * @return compiled stylesheet, compiled again if the file has changed
+     */
+    public static Templates templates(Engine engine, String templateXSL) throws TransformerConfigurationException {
+        return entry(engine, templateXSL).templates;
+    }
+
+    /**
+     * Borrows a transformer of the stylesheet, to give back with close()
+     */
+    public static Pooled acquire(Engine engine, String templateXSL) throws TransformerConfigurationException {
+        Entry entry = entry(engine, templateXSL);
+        Transformer transformer = entry.idle.poll();
+        if (transformer == null) {
+            transformer = entry.templates.newTransformer();
+        }
+        return new Pooled(entry.idle, transformer);
+    }
+
+    /**
+     * Borrows an identity transformer that writes a tree with the xsl:output
+     * properties of the stylesheet, as its transformation would have written
+     * it, to give back with close()
+     */
+    public static Pooled acquireSerializer(Engine engine, String templateXSL)
+            throws TransformerConfigurationException {
+        Entry entry = entry(engine, templateXSL);
+        Transformer serializer = entry.serializers.poll();
+        if (serializer == null) {
+            synchronized (StylesheetCache.class) {
+                serializer = factory(engine).newTransformer();
+            }
+        }
+        // Propriétés remises à zéro par reset() au retour dans le pool
+        serializer.setOutputProperties(entry.templates.getOutputProperties());
+        return new Pooled(entry.serializers, serializer);
+    }
+
+    /**
+     * Forgets all compiled stylesheets
+     */
+    public static void clear() {
+        entries.clear();
+    }
+
+    private static Entry entry(Engine engine, String templateXSL) throws TransformerConfigurationException {
+        File file = new File(templateXSL).getAbsoluteFile();
+        String key = engine + ":" + file.getPath();
+
+        Entry entry = entries.get(key);
+        if (entry != null && entry.isCurrent()) {
+            return entry;
+        }
+        synchronized (StylesheetCache.class) {
+            entry = entries.get(key);
+            if (entry == null || !entry.isCurrent()) {
+                // Feuilles incluses ou importées relevées pendant la compilation
+                Map<File, Long> files = new HashMap<>();
+                files.put(file, file.lastModified());
+                TransformerFactory factory = factory(engine);
+                IncludeRecorder recorder = new IncludeRecorder(files);
+                factory.setURIResolver(recorder);
+                try {
+                    Templates templates = factory.newTemplates(new StreamSource(file.toURI().toString()));
+                    entry = new Entry(templates, files);
+                } finally {
+                    recorder.stop();
+                    factory.setURIResolver(null);
+                }
+                entries.put(key, entry);
+            }
+            return entry;
+        }
+    }
+
+    /*
+     * Relève les fichiers xsl:include et xsl:import sans changer leur
+     * résolution (null : résolution standard). Arrêté après la compilation,
+     * au cas où le moteur garde le resolver pour document().
+     */
+    private static final class IncludeRecorder implements URIResolver {
+        private final Map<File, Long> files;
+        private volatile boolean recording = true;
+
+        private IncludeRecorder(Map<File, Long> files) {
+            this.files = files;
+        }
+
+        @Override
+        public Source resolve(String href, String base) {
+            if (recording) {
+                try {
+                    URI uri = base != null ? new URI(base).resolve(href) : new URI(href);
+                    if ("file".equals(uri.getScheme())) {
+                        File include = new File(uri);
+                        files.put(include, include.lastModified());
+                    }
+                } catch (URISyntaxException | IllegalArgumentException e) {
+                    // URI non locale : pas suivie
+                }
+            }
+            return null;
+        }
+
+        private void stop() {
+            recording = false;
+        }
+    }
+
+    private static TransformerFactory factory(Engine engine) {
+        return factories.computeIfAbsent(engine, e -> e == Engine.SAXON
+                ? new net.sf.saxon.TransformerFactoryImpl()
+                : TransformerFactory.newInstance());
+    }
+
+    private static final class Entry {
+        private final Templates templates;
+        // Feuille principale et feuilles incluses, avec leur date de modification
+        private final Map<File, Long> files;
+        private final Queue<Transformer> idle = new ConcurrentLinkedQueue<>();
+        private final Queue<Transformer> serializers = new ConcurrentLinkedQueue<>();
+
+        private Entry(Templates templates, Map<File, Long> files) {
+            this.templates = templates;
+            this.files = files;
+        }
+
+        private boolean isCurrent() {
+            for (Map.Entry<File, Long> file : files.entrySet()) {
+                if (file.getKey().lastModified() != file.getValue()) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Transformer borrowed from the pool of a stylesheet
+     */
+    public static final class Pooled implements AutoCloseable {
+        private final Queue<Transformer> pool;
+        private final Transformer transformer;
+
+        private Pooled(Queue<Transformer> pool, Transformer transformer) {
+            this.pool = pool;
+            this.transformer = transformer;
+        }
+
+        public Transformer get() {
+            return transformer;
+        }
+
+        /**
+         * Gives the transformer back, without its parameters and handlers
+         */
+        @Override
+        public void close() {
+            try {
+                transformer.reset();
+            } catch (UnsupportedOperationException e) {
+                // Transformer non réutilisable : il n'est pas remis dans le pool
+                return;
+            }
+            pool.offer(transformer);
+        }
+    }
+}
@@ -10,7 +10,14 @@ import javax.swing.JOptionPane;
 import org.w3c.dom.Element;
 import org.w3c.dom.NodeList;
 import java.io.*;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.util.Base64;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
 
 /**
@@ -52,17 +59,69 @@ public class Tools {
     }
  
 
-    public static void executeGS(String inputGS) {
+    public static void executeGS(String inputGS) throws IOException {
 
         try {
             Runtime rt = Runtime.getRuntime();
             Process proc = rt.exec(inputGS);
-            proc.waitFor();
-        } catch (IOException | InterruptedException e) {
-            e.printStackTrace();
-            System.exit(1);
+            int exitCode = proc.waitFor();
+            if (exitCode != 0) {
+                throw new IOException("Ghostscript exit code " + exitCode + " : " + inputGS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Ghostscript interrupted : " + inputGS, e);
+        }
+
+    }
+
+    /*
+     * Publication d'un fichier par renommage atomique : le fichier n'apparaît
+     * qu'une fois complet. Entre deux systèmes de fichiers, copie à côté de
+     * la cible puis renommage.
+     */
+    public static void publish(String source, String target) throws IOException {
+        Path from = Paths.get(source);
+        Path to = Paths.get(target);
+        try {
+            Files.move(from, to, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Path tmp = to.resolveSibling(to.getFileName() + ".tmp");
+            Files.copy(from, tmp, StandardCopyOption.REPLACE_EXISTING);
+            Files.move(tmp, to, StandardCopyOption.ATOMIC_MOVE);
+            Files.delete(from);
+        }
+    }
+
+    // Extension des spools et des sorties compressés
+    public static final String GZIP_SUFFIX = ".gz";
+
+    /* Fichier d'entrée, décompressé à la lecture s'il se termine par .gz */
+    public static InputStream openInput(String path) throws IOException {
+        InputStream in = new FileInputStream(path);
+        if (path.endsWith(GZIP_SUFFIX)) {
+            try {
+                return new GZIPInputStream(in, 64 * 1024);
+            } catch (IOException e) {
+                in.close();
+                throw e;
+            }
         }
+        return in;
+    }
 
+    /* Fichier de sortie, compressé à l'écriture s'il se termine par .gz */
+    public static OutputStream openOutput(String path) throws IOException {
+        OutputStream out = new FileOutputStream(path);
+        if (path.endsWith(GZIP_SUFFIX)) {
+            try {
+                return new GZIPOutputStream(out, 64 * 1024);
+            } catch (IOException e) {
+                out.close();
+                throw e;
+            }
+        }
+        return new BufferedOutputStream(out, 64 * 1024);
     }
 
 }
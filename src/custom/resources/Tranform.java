@@ -2,6 +2,7 @@ package custom.resources;
 
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.transform.stream.StreamResult;
 import javax.xml.transform.stream.StreamSource;
 import org.w3c.dom.Document;
@@ -10,12 +11,24 @@ import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
 
 import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
 import java.util.Base64;
+import java.util.List;
 import javax.xml.transform.*;
+import javax.xml.transform.dom.DOMResult;
 import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.sax.SAXResult;
+import javax.xml.transform.sax.SAXSource;
+import javax.xml.transform.sax.SAXTransformerFactory;
+import javax.xml.transform.sax.TransformerHandler;
 
 public class Tranform {
 
+    // PDF en mémoire à encoder à la sérialisation de l'arbre UBL
+    private static final String PDF_ATTACHMENT = "nomaubl.pdfAttachment";
+    private static final SecureRandom MARKERS = new SecureRandom();
+
     /* Generic result class for transformation operations */
     public static class TransformResult<T> {
         private final T data;
@@ -55,19 +68,15 @@ public class Tranform {
         
         try
         {
-            // Use the factory to create a template containing the xsl file
-            TransformerFactory factory = TransformerFactory.newInstance();
-            
-            Source xml = new StreamSource(new FileInputStream(inputXML));
-            Source xsl = new StreamSource("file:" + templateXSL);
-            Templates template = factory.newTemplates(xsl);
-            Transformer xformer = template.newTransformer();
-            
-            FileOutputStream fos = new FileOutputStream(outputXML);
-            Result result = new StreamResult(fos);
-            
-            xformer.transform(xml, result);
-            fos.close();
+            // Feuille compilée une seule fois, transformer pris dans le pool
+            // Spool compressé (.xml.gz) décompressé à la lecture
+            try (StylesheetCache.Pooled xformer = StylesheetCache.acquire(StylesheetCache.Engine.DEFAULT, templateXSL);
+                    InputStream in = Tools.openInput(inputXML);
+                    FileOutputStream fos = new FileOutputStream(outputXML)) {
+                Source xml = new StreamSource(in);
+                Result result = new StreamResult(fos);
+                xformer.get().transform(xml, result);
+            }
             return new TransformResult<>(null, 0, null);
         }
         catch (IOException | TransformerException e)
@@ -76,21 +85,213 @@ public class Tranform {
         }
     }
 
-    public static Boolean convertToXML(InputStream xmlStream, String outputXML, String xslTemplate) {
-        try {
-            // Use the factory to create a template containing the xsl file
+    /*
+     * Application d'une suite de feuilles XSL en mémoire : chaque feuille
+     * alimente la suivante par événements SAX, seul le résultat final est
+     * écrit. La sonde recherche un texte dans ce résultat pendant son
+     * écriture ; data = true si le texte est présent (ou sans sonde).
+     */
+    public static TransformResult<Boolean> transformChain(String inputXML, OutputStream output,
+            List<String> templatesXSL, String probe) {
+        ProbeOutputStream probed = new ProbeOutputStream(output, probe);
+        try (InputStream in = Tools.openInput(inputXML)) {
             TransformerFactory factory = TransformerFactory.newInstance();
+            StreamSource xml = new StreamSource(in, new File(inputXML).toURI().toString());
+
+            if (templatesXSL.isEmpty()) {
+                factory.newTransformer().transform(xml, new StreamResult(probed));
+            } else if (factory.getFeature(SAXSource.FEATURE) && factory.getFeature(SAXResult.FEATURE)) {
+                SAXTransformerFactory saxFactory = (SAXTransformerFactory) factory;
+                TransformerHandler first = null;
+                TransformerHandler previous = null;
+                for (String templateXSL : templatesXSL) {
+                    TransformerHandler handler = saxFactory.newTransformerHandler(
+                            StylesheetCache.templates(StylesheetCache.Engine.DEFAULT, templateXSL));
+                    if (previous == null) {
+                        first = handler;
+                    } else {
+                        SAXResult next = new SAXResult(handler);
+                        next.setLexicalHandler(handler);
+                        previous.setResult(next);
+                    }
+                    previous = handler;
+                }
+                // La dernière feuille garde son xsl:output
+                previous.setResult(new StreamResult(probed));
+                SAXResult start = new SAXResult(first);
+                start.setLexicalHandler(first);
+                factory.newTransformer().transform(xml, start);
+            } else {
+                // Moteur XSLT sans SAX : résultats intermédiaires en mémoire
+                byte[] data = null;
+                for (int i = 0; i < templatesXSL.size(); i++) {
+                    Source source = data == null ? xml : new StreamSource(new ByteArrayInputStream(data));
+                    try (StylesheetCache.Pooled xformer = StylesheetCache.acquire(StylesheetCache.Engine.DEFAULT,
+                            templatesXSL.get(i))) {
+                        if (i == templatesXSL.size() - 1) {
+                            xformer.get().transform(source, new StreamResult(probed));
+                        } else {
+                            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+                            xformer.get().transform(source, new StreamResult(buffer));
+                            data = buffer.toByteArray();
+                        }
+                    }
+                }
+            }
+            probed.flush();
+            return new TransformResult<>(probed.isFound(), 0, null);
+        } catch (IOException | TransformerException e) {
+            return new TransformResult<>(null, 1, e.getMessage());
+        }
+    }
+
+    /*
+     * Recherche d'un motif d'octets dans un flux, octet par octet, sans
+     * retour arrière (Knuth-Morris-Pratt)
+     */
+    private static final class PatternMatcher {
+        private final byte[] pattern;
+        // Préfixes du motif qui en sont aussi des suffixes
+        private final int[] fallback;
+        private int matched;
+
+        PatternMatcher(byte[] pattern) {
+            this.pattern = pattern;
+            this.fallback = new int[pattern.length];
+            for (int i = 1, k = 0; i < pattern.length; i++) {
+                while (k > 0 && pattern[i] != pattern[k]) {
+                    k = fallback[k - 1];
+                }
+                if (pattern[i] == pattern[k]) {
+                    k++;
+                }
+                fallback[i] = k;
+            }
+        }
+
+        /* Octet suivant du flux : true quand le motif complet vient d'être lu */
+        boolean next(byte b) {
+            while (matched > 0 && b != pattern[matched]) {
+                matched = fallback[matched - 1];
+            }
+            if (b == pattern[matched] && ++matched == pattern.length) {
+                matched = 0;
+                return true;
+            }
+            return false;
+        }
+
+        /* Nombre d'octets lus qui forment le début du motif */
+        int matched() {
+            return matched;
+        }
+
+        byte[] pattern() {
+            return pattern;
+        }
+    }
+
+    /* Flux de sortie qui repère un texte ASCII dans les octets écrits */
+    private static class ProbeOutputStream extends FilterOutputStream {
+        private final PatternMatcher matcher;
+        private boolean found;
+
+        ProbeOutputStream(OutputStream out, String probe) {
+            super(out);
+            byte[] pattern = probe != null ? probe.getBytes(StandardCharsets.US_ASCII) : new byte[0];
+            this.matcher = new PatternMatcher(pattern);
+            this.found = pattern.length == 0;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            found = found || matcher.next((byte) b);
+            out.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            for (int i = off; i < off + len && !found; i++) {
+                found = matcher.next(b[i]);
+            }
+            out.write(b, off, len);
+        }
+
+        boolean isFound() {
+            return found;
+        }
+    }
+
+    /*
+     * Copie de la sortie où la première occurrence du marqueur est remplacée
+     * par le PDF encodé en Base64. Les octets qui peuvent commencer le
+     * marqueur sont retenus jusqu'à ce que la recherche les écarte.
+     */
+    private static class SpliceOutputStream extends FilterOutputStream {
+        private final PatternMatcher matcher;
+        private final PdfBuffer pdf;
+        private boolean replaced;
+
+        SpliceOutputStream(OutputStream out, String marker, PdfBuffer pdf) {
+            super(out);
+            this.matcher = new PatternMatcher(marker.getBytes(StandardCharsets.US_ASCII));
+            this.pdf = pdf;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (replaced) {
+                out.write(b);
+                return;
+            }
+            int retained = matcher.matched();
+            if (matcher.next((byte) b)) {
+                pdf.writeBase64(out);
+                replaced = true;
+                return;
+            }
+            // Octets retenus plus l'octet lu, moins ceux qui commencent encore le marqueur
+            int released = retained + 1 - matcher.matched();
+            if (released <= retained) {
+                out.write(matcher.pattern(), 0, released);
+            } else {
+                out.write(matcher.pattern(), 0, retained);
+                out.write(b);
+            }
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (replaced) {
+                out.write(b, off, len);
+                return;
+            }
+            for (int i = off; i < off + len; i++) {
+                write(b[i]);
+            }
+        }
 
-            Source xml = new StreamSource(xmlStream);
-            Source xsl = new StreamSource("file:" + xslTemplate);
-            Templates template = factory.newTemplates(xsl);
-            Transformer xformer = template.newTransformer();
+        /* Octets retenus en fin de document */
+        void finish() throws IOException {
+            if (!replaced) {
+                out.write(matcher.pattern(), 0, matcher.matched());
+            }
+            flush();
+        }
+    }
 
-            FileOutputStream fos = new FileOutputStream(outputXML);
+    public static Boolean convertToXML(InputStream xmlStream, String outputXML, String xslTemplate) {
+        return convertToXML(new StreamSource(xmlStream), outputXML, xslTemplate);
+    }
+
+    /* Copie XML à partir d'un document déjà chargé (DOMSource), sans nouvelle lecture */
+    public static Boolean convertToXML(Source xml, String outputXML, String xslTemplate) {
+        // Feuille compilée une seule fois, transformer pris dans le pool ; compressé si .gz
+        try (StylesheetCache.Pooled xformer = StylesheetCache.acquire(StylesheetCache.Engine.DEFAULT, xslTemplate);
+                OutputStream fos = Tools.openOutput(outputXML)) {
             Result result = new StreamResult(fos);
 
-            xformer.transform(xml, result);
-            fos.close();
+            xformer.get().transform(xml, result);
         } catch (IOException | TransformerException e) {
             return false;
         }
@@ -98,24 +299,76 @@ public class Tranform {
     }
 
     public static boolean convertToUBL(InputStream invoiceXmlStream, String outputUblFile, String ublXsltPath) {
-        try {
-            // Use Saxon for XSLT 2.0 support
-            TransformerFactory factory = new net.sf.saxon.TransformerFactoryImpl();
-            Source xml = new StreamSource(invoiceXmlStream);
-            Source xsl = new StreamSource("file:" + ublXsltPath);
-            Templates template = factory.newTemplates(xsl);
-            Transformer transformer = template.newTransformer();
-
-            try (FileOutputStream fos = new FileOutputStream(outputUblFile)) {
-                Result result = new StreamResult(fos);
-                transformer.transform(xml, result);
-            }
+        // Use Saxon for XSLT 2.0 support, stylesheet compiled once for all invoices
+        try (StylesheetCache.Pooled transformer = StylesheetCache.acquire(StylesheetCache.Engine.SAXON, ublXsltPath);
+                FileOutputStream fos = new FileOutputStream(outputUblFile)) {
+            Result result = new StreamResult(fos);
+            transformer.get().transform(new StreamSource(invoiceXmlStream), result);
             return true;
         } catch (IOException | TransformerException e) {
             return false;
         }
     }
 
+    /*
+     * Conversion UBL en mémoire : le document reste un arbre pour la pièce
+     * jointe, la validation et les tables, null en cas d'erreur
+     */
+    public static Document convertToUBLDocument(Source invoiceXml, String ublXsltPath) {
+        try (StylesheetCache.Pooled transformer = StylesheetCache.acquire(StylesheetCache.Engine.SAXON, ublXsltPath)) {
+            DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
+            dbf.setNamespaceAware(true);
+            DOMResult result = new DOMResult(dbf.newDocumentBuilder().newDocument());
+            transformer.get().transform(invoiceXml, result);
+            return (Document) result.getNode();
+        } catch (ParserConfigurationException | TransformerException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Serializes a UBL document as the UBL stylesheet writes it
+     *
+     * @param ublDoc      UBL document
+     * @param ublXsltPath UBL stylesheet, for its xsl:output properties
+     * @return UTF-8 content of the UBL file
+     */
+    public static byte[] serializeUBL(Document ublDoc, String ublXsltPath) throws TransformerException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        serializeUBL(ublDoc, ublXsltPath, output);
+        return output.toByteArray();
+    }
+
+    /**
+     * Serializes a UBL document to a stream, as the UBL stylesheet writes it,
+     * with the PDF kept in memory encoded in place of its placeholder
+     *
+     * @param ublDoc      UBL document
+     * @param ublXsltPath UBL stylesheet, for its xsl:output properties
+     * @param output      Content of the UBL file, not closed
+     */
+    public static void serializeUBL(Document ublDoc, String ublXsltPath, OutputStream output)
+            throws TransformerException {
+        // Sérialiseur pris dans le pool de la feuille UBL, avec son xsl:output
+        try (StylesheetCache.Pooled serializer = StylesheetCache.acquireSerializer(StylesheetCache.Engine.SAXON,
+                ublXsltPath)) {
+            // Déclaration standalone de l'arbre, reprise par certains sérialiseurs DOM
+            ublDoc.setXmlStandalone("yes".equals(serializer.get().getOutputProperty(OutputKeys.STANDALONE)));
+            PdfAttachment attachment = (PdfAttachment) ublDoc.getUserData(PDF_ATTACHMENT);
+            if (attachment == null) {
+                serializer.get().transform(new DOMSource(ublDoc), new StreamResult(output));
+                return;
+            }
+            SpliceOutputStream splice = new SpliceOutputStream(output, attachment.marker, attachment.pdf);
+            serializer.get().transform(new DOMSource(ublDoc), new StreamResult(splice));
+            try {
+                splice.finish();
+            } catch (IOException e) {
+                throw new TransformerException(e);
+            }
+        }
+    }
+
     public static Document parseUBLFile(String ublFilePath) throws Exception {
         DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
         dbf.setNamespaceAware(true);
@@ -132,6 +385,41 @@ public class Tranform {
      * @return true if successful, false otherwise
      */
     public static boolean embedPdfInUBL(String ublFilePath, String pdfFilePath, String pdfFileName) {
+        try {
+            // Parse UBL XML
+            DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
+            dbf.setNamespaceAware(true);
+            DocumentBuilder db = dbf.newDocumentBuilder();
+            Document doc = db.parse(new File(ublFilePath));
+
+            if (!embedPdfInUBL(doc, pdfFilePath, pdfFileName)) {
+                return false;
+            }
+
+            // Write modified UBL back to file
+            TransformerFactory tf = TransformerFactory.newInstance();
+            Transformer transformer = tf.newTransformer();
+            transformer.setOutputProperty(OutputKeys.ENCODING, "UTF-8");
+            transformer.setOutputProperty(OutputKeys.INDENT, "yes");
+            try (FileOutputStream fos = new FileOutputStream(ublFilePath)) {
+                transformer.transform(new DOMSource(doc), new StreamResult(fos));
+            }
+            return true;
+
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    /**
+     * Embeds a PDF file as base64 in a UBL document kept in memory
+     *
+     * @param doc         UBL document, modified in place
+     * @param pdfFilePath Path to the PDF file to embed
+     * @param pdfFileName Filename to use in the attachment
+     * @return true if successful, false otherwise
+     */
+    public static boolean embedPdfInUBL(Document doc, String pdfFilePath, String pdfFileName) {
         try {
             // Read PDF file and encode to base64
             File pdfFile = new File(pdfFilePath);
@@ -144,14 +432,53 @@ public class Tranform {
             try (FileInputStream fis = new FileInputStream(pdfFile)) {
                 fis.read(pdfBytes);
             }
-            String base64Pdf = Base64.getEncoder().encodeToString(pdfBytes);
+            return appendAttachment(doc, Base64.getEncoder().encodeToString(pdfBytes), pdfFileName);
 
-            // Parse UBL XML
-            DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
-            dbf.setNamespaceAware(true);
-            DocumentBuilder db = dbf.newDocumentBuilder();
-            Document doc = db.parse(new File(ublFilePath));
+        } catch (Exception e) {
+            return false;
+        }
+    }
 
+    /**
+     * Embeds a PDF rendered in memory in a UBL document kept in memory
+     *
+     * The document only holds a placeholder, replaced by the Base64 of the
+     * PDF when serializeUBL writes the document: the encoded PDF is never
+     * held as a String. The buffer must stay available until then.
+     *
+     * @param doc         UBL document, modified in place
+     * @param pdf         PDF rendered in memory
+     * @param pdfFileName Filename to use in the attachment
+     * @return true if successful, false otherwise
+     */
+    public static boolean embedPdfInUBL(Document doc, PdfBuffer pdf, String pdfFileName) {
+        if (pdf.size() == 0) {
+            return false;
+        }
+        // Marqueur aléatoire, lui-même du Base64 valide pour la validation XSD
+        byte[] random = new byte[12];
+        MARKERS.nextBytes(random);
+        String marker = Base64.getEncoder().encodeToString(random);
+        if (!appendAttachment(doc, marker, pdfFileName)) {
+            return false;
+        }
+        doc.setUserData(PDF_ATTACHMENT, new PdfAttachment(marker, pdf), null);
+        return true;
+    }
+
+    /* PDF en mémoire et marqueur qui le remplace dans l'arbre UBL */
+    private static final class PdfAttachment {
+        private final String marker;
+        private final PdfBuffer pdf;
+
+        private PdfAttachment(String marker, PdfBuffer pdf) {
+            this.marker = marker;
+            this.pdf = pdf;
+        }
+    }
+
+    private static boolean appendAttachment(Document doc, String base64Pdf, String pdfFileName) {
+        try {
             Element root = doc.getDocumentElement();
             String cacNamespace = "urn:oasis:names:specification:ubl:schema:xsd:CommonAggregateComponents-2";
             String cbcNamespace = "urn:oasis:names:specification:ubl:schema:xsd:CommonBasicComponents-2";
@@ -199,16 +526,6 @@ public class Tranform {
                 }
             }
 
-            // Write modified UBL back to file
-            TransformerFactory tf = TransformerFactory.newInstance();
-            Transformer transformer = tf.newTransformer();
-            transformer.setOutputProperty(OutputKeys.ENCODING, "UTF-8");
-            transformer.setOutputProperty(OutputKeys.INDENT, "yes");
-
-            DOMSource source = new DOMSource(doc);
-            StreamResult result = new StreamResult(new File(ublFilePath));
-            transformer.transform(source, result);
-
             return true;
 
         } catch (Exception e) {
@@ -0,0 +1,57 @@
+/*
+ * Copyright (c) 2025 NOMANA-IT and/or its affiliates.
+ * All rights reserved. Use is subject to license terms.
+ *
+ * @author fblettner
+ */
+package custom.resources;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * XSL-FO template generated from an RTF template, shared by all workers
+ *
+ * The bytes are never modified after the conversion: each PDF rendering
+ * opens its own stream on the same array instead of copying it.
+ */
+public final class XslTemplate {
+
+    private final byte[] xsl;
+    private final String key;
+
+    /**
+     * Constructor for XslTemplate
+     *
+     * @param xsl Generated XSL-FO, not modified afterwards
+     * @param key Hash of the RTF template and BI Publisher version
+     */
+    XslTemplate(byte[] xsl, String key) {
+        this.xsl = xsl;
+        this.key = key;
+    }
+
+    /**
+     * @return new stream on the XSL-FO
+     */
+    public InputStream openStream() {
+        return new ByteArrayInputStream(xsl);
+    }
+
+    public int length() {
+        return xsl.length;
+    }
+
+    public void writeTo(OutputStream out) throws IOException {
+        out.write(xsl);
+    }
+
+    /**
+     * @return hash of the RTF template and BI Publisher version
+     */
+    public String getKey() {
+        return key;
+    }
+}
@@ -0,0 +1,260 @@
+/*
+ * Copyright (c) 2025 NOMANA-IT and/or its affiliates.
+ * All rights reserved. Use is subject to license terms.
+ *
+ * @author fblettner
+ */
+package custom.ubl;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+/**
+ * Number of workers allowed to process invoices at the same time
+ *
+ * The job starts one worker per possible slot, up to the ceiling, and each
+ * worker asks for a slot before taking a batch. In adaptive mode the limit
+ * starts at numProc and is changed at each measure interval from the
+ * documents per second and the latency per document (AIMD):
+ * - one more slot while the throughput grows,
+ * - a quarter of the slots less when the throughput drops or the latency
+ * doubles without any gain (database, PA or Ghostscript saturated),
+ * - unchanged on a plateau, with a new probe after a few intervals.
+ * Without adaptive mode the limit stays at its initial value.
+ *
+ * When the engine shares PriorityLanes between its jobs, a worker also takes
+ * a slot of the job's lane, so bulk jobs leave room for interactive ones.
+ *
+ * Database connections belong to the slots, not to the workers: a worker
+ * opens one only once it holds a slot, and gives it back with the slot. At
+ * most limit connections are kept open between batches, so the workers
+ * waiting for a slot hold none.
+ */
+public class ConcurrencyController {
+
+    // Gain minimum pour considérer que le débit augmente
+    private static final double GAIN = 1.05;
+    // Baisse tolérée avant de réduire le nombre de workers
+    private static final double LOSS = 0.90;
+    private static final double DECREASE_FACTOR = 0.75;
+    // Intervalles stables avant de tester un worker de plus
+    private static final int PROBE_AFTER = 3;
+
+    private final boolean adaptive;
+    private final int ceiling;
+    private final long intervalNanos;
+    private final List<String> decisions = new ArrayList<>();
+    private final PriorityLanes lanes;
+    private final PriorityLanes.Lane lane;
+    private int limit;
+    private int active;
+
+    // Connexions des slots libres, reprises par le prochain worker
+    private final Deque<Connection> connections = new ArrayDeque<>();
+    private boolean closed;
+
+    // Mesures de l'intervalle en cours
+    private long intervalStart = System.nanoTime();
+    private int intervalDocuments;
+    private long intervalLatency;
+
+    // Référence de l'intervalle précédent
+    private double lastThroughput;
+    private double bestLatency = Double.MAX_VALUE;
+    private int stableIntervals;
+
+    /**
+     * Constructor for ConcurrencyController
+     *
+     * @param initial    Number of workers at the start (numProc)
+     * @param ceiling    Maximum number of workers (maxProc)
+     * @param adaptive   true to adjust the limit while the job runs
+     * @param intervalMs Measure interval in milliseconds
+     */
+    public ConcurrencyController(int initial, int ceiling, boolean adaptive, long intervalMs) {
+        this(initial, ceiling, adaptive, intervalMs, null, null);
+    }
+
+    /**
+     * Constructor for ConcurrencyController
+     *
+     * @param initial    Number of workers at the start (numProc)
+     * @param ceiling    Maximum number of workers (maxProc)
+     * @param adaptive   true to adjust the limit while the job runs
+     * @param intervalMs Measure interval in milliseconds
+     * @param lanes      Slots shared with the other jobs, null if none
+     * @param lane       Priority lane of the job
+     */
+    public ConcurrencyController(int initial, int ceiling, boolean adaptive, long intervalMs,
+            PriorityLanes lanes, PriorityLanes.Lane lane) {
+        this.ceiling = Math.max(1, ceiling);
+        this.limit = Math.max(1, Math.min(initial, this.ceiling));
+        this.adaptive = adaptive;
+        this.intervalNanos = intervalMs * 1_000_000L;
+        this.lanes = lanes;
+        this.lane = lane;
+    }
+
+    /**
+     * @return number of workers to start, each one waiting for a slot
+     */
+    public int getWorkerCount() {
+        return adaptive ? ceiling : limit;
+    }
+
+    /**
+     * Takes a slot, waiting while the limit is reached
+     */
+    public void acquire() throws InterruptedException {
+        synchronized (this) {
+            while (active >= limit) {
+                wait();
+            }
+            active++;
+        }
+        if (lanes != null) {
+            try {
+                lanes.acquire(lane);
+            } catch (InterruptedException e) {
+                synchronized (this) {
+                    active--;
+                    notifyAll();
+                }
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Gives back a slot taken with acquire()
+     *
+     * @param documents    Documents processed with the slot
+     * @param elapsedNanos Time spent processing them
+     */
+    public void release(int documents, long elapsedNanos) {
+        if (lanes != null) {
+            lanes.release(lane);
+        }
+        synchronized (this) {
+            active--;
+            intervalDocuments += documents;
+            intervalLatency += elapsedNanos;
+            if (adaptive) {
+                adjust();
+            }
+            notifyAll();
+        }
+    }
+
+    /**
+     * Connection for the slot held by the worker: one given back by an
+     * earlier slot, or a new one
+     *
+     * @param opener Opens a new connection, may return null when the job does
+     *               not update the database
+     */
+    public Connection takeConnection(Callable<Connection> opener) throws Exception {
+        synchronized (this) {
+            Connection conn = connections.poll();
+            if (conn != null) {
+                return conn;
+            }
+        }
+        return opener.call();
+    }
+
+    /**
+     * Gives back the connection of the slot before release(): kept for the
+     * next worker while the limit allows it, closed otherwise
+     */
+    public void returnConnection(Connection conn) throws SQLException {
+        if (conn == null) {
+            return;
+        }
+        synchronized (this) {
+            // Les slots encore occupés, sauf celui-ci, gardent leur connexion
+            if (!closed && connections.size() + active - 1 < limit) {
+                connections.push(conn);
+                return;
+            }
+        }
+        conn.close();
+    }
+
+    /**
+     * Closes the connections kept for the slots, at the end of the job
+     */
+    public void closeConnections() {
+        List<Connection> toClose;
+        synchronized (this) {
+            closed = true;
+            toClose = new ArrayList<>(connections);
+            connections.clear();
+        }
+        for (Connection conn : toClose) {
+            try {
+                conn.close();
+            } catch (SQLException e) {
+                // Connexion déjà perdue : rien à libérer
+            }
+        }
+    }
+
+    /* Décision en fin d'intervalle de mesure */
+    private void adjust() {
+        long now = System.nanoTime();
+        long elapsed = now - intervalStart;
+        // Pas assez de documents pour une mesure fiable
+        if (elapsed < intervalNanos || intervalDocuments < limit) {
+            return;
+        }
+        double throughput = intervalDocuments * 1_000_000_000.0 / elapsed;
+        double latency = intervalLatency / 1_000_000.0 / intervalDocuments;
+        bestLatency = Math.min(bestLatency, latency);
+
+        int previous = limit;
+        String reason;
+        if (lastThroughput == 0 || throughput > lastThroughput * GAIN) {
+            limit = Math.min(ceiling, limit + 1);
+            stableIntervals = 0;
+            reason = "throughput rising";
+        } else if (throughput < lastThroughput * LOSS || latency > bestLatency * 2) {
+            limit = Math.max(1, (int) (limit * DECREASE_FACTOR));
+            stableIntervals = 0;
+            reason = throughput < lastThroughput * LOSS ? "throughput falling" : "latency doubled";
+        } else if (++stableIntervals >= PROBE_AFTER) {
+            limit = Math.min(ceiling, limit + 1);
+            stableIntervals = 0;
+            reason = "probe";
+        } else {
+            reason = "plateau";
+        }
+
+        if (limit != previous) {
+            LogCatalog.LogEntry entry = LogCatalog.concurrencyChanged(previous, limit, throughput, latency, reason);
+            entry.print(true);
+            decisions.add(entry.getMessage());
+        }
+
+        lastThroughput = throughput;
+        intervalStart = now;
+        intervalDocuments = 0;
+        intervalLatency = 0;
+    }
+
+    public synchronized int getLimit() {
+        return limit;
+    }
+
+    /**
+     * @return changes of the limit made during the job
+     */
+    public synchronized List<String> getDecisions() {
+        return new ArrayList<>(decisions);
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright (c) 2025 NOMANA-IT and/or its affiliates.
+ * All rights reserved. Use is subject to license terms.
+ *
+ * @author fblettner
+ */
+package custom.ubl;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Small bounded pool of JDBC connections
+ * Used when database work runs on many short tasks (virtual threads): the
+ * tasks borrow a connection for one document instead of holding one each,
+ * so the number of sessions opened on Oracle stays at the pool size.
+ * Connections are opened on first use and closed with the pool.
+ */
+public class ConnectionPool implements AutoCloseable {
+
+    private final Callable<Connection> factory;
+    private final Semaphore permits;
+    private final Deque<Connection> idle = new ArrayDeque<>();
+
+    /**
+     * Constructor for ConnectionPool
+     *
+     * @param factory Opens a new connection
+     * @param size    Maximum number of connections
+     */
+    public ConnectionPool(Callable<Connection> factory, int size) {
+        this.factory = factory;
+        this.permits = new Semaphore(Math.max(1, size));
+    }
+
+    /**
+     * Takes a connection, waiting while all of them are in use
+     */
+    public Connection borrow() throws Exception {
+        permits.acquire();
+        try {
+            Connection conn;
+            synchronized (idle) {
+                conn = idle.poll();
+            }
+            return conn != null ? conn : factory.call();
+        } catch (Exception e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Gives back a connection taken with borrow()
+     */
+    public void release(Connection conn) {
+        synchronized (idle) {
+            idle.push(conn);
+        }
+        permits.release();
+    }
+
+    @Override
+    public void close() {
+        synchronized (idle) {
+            for (Connection conn : idle) {
+                try {
+                    conn.close();
+                } catch (SQLException e) {
+                    // Connexion déjà fermée
+                }
+            }
+            idle.clear();
+        }
+    }
+}
@@ -9,23 +9,25 @@ package custom.ubl;
 import java.io.*;
 import org.w3c.dom.*;
 
-import javax.xml.transform.*;
-import javax.xml.transform.dom.*;
-import javax.xml.transform.stream.*;
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.transform.TransformerException;
 import java.util.concurrent.Callable;
 import org.simpleframework.xml.Serializer;
 import org.simpleframework.xml.core.Persister;
 import custom.resources.*;
 import static custom.resources.Tools.decodePasswd;
 import java.sql.*;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 public class CustomUBL implements Callable<Integer> {
 
     private final boolean displayError;
-    private final int startInvoice;
-    private final int endInvoice;
-    private final NodeList list;
-    private final ByteArrayOutputStream xslOutStream;
+    private final InvoiceQueue queue;
+    private final XslTemplate xslTemplate;
+    private boolean preRenderedPDF;
     private String pAppHome;
     private String pSetLocale;
     private String pProcessHome;
@@ -48,6 +50,9 @@ public class CustomUBL implements Callable<Integer> {
     private String pDirInput;
     private String pRunGS;
     private String pCmdGS;
+    private int pGSWorkers;
+    private String pCompressOutput;
+    private String pPdfInMemory;
     private final String TEMPLATE = "%TEMPLATE%";
     private final String FILE_NAME = "%FILE_NAME%";
     private final String APP_HOME = "%APP_HOME%";
@@ -59,13 +64,19 @@ public class CustomUBL implements Callable<Integer> {
     private String pDBUser;
     private String pDBPasswd;
     private String pCodeRoutage;
-    private static String pXdoConfig;
+    private String pXdoConfig;
     private String pUblXsltPath;
     private UBLValidator pUBLValidator;
     private TokenManager pTokenManager;
     private String pAttachment;
     private String pSendToPA;
     private IPlatformApiClient pPlatformApiClient;
+    private final RunJournal journal;
+    private final Quarantine quarantine;
+    private final ConcurrencyController controller;
+    // Mode pipeline : connexions empruntées pour les erreurs des étapes sans connexion
+    private ConnectionPool connectionPool;
+    private FieldExtractor fieldExtractor;
 
     /**
      * Log using a LogEntry from LogCatalog
@@ -95,8 +106,8 @@ public class CustomUBL implements Callable<Integer> {
      * Handle validation failure - log errors/warnings and potentially send to PA in
      * force mode
      */
-    private void handleValidationFailure(ValidationResult validResult, String docName, String ublFile,
-            UBLDatabaseHandler dbHandler, Connection conn) {
+    private void handleValidationFailure(ValidationResult validResult, String docName, InvoiceContext ctx,
+            UBLDatabaseHandler dbHandler, Connection conn) throws TransformerException, IOException {
         // Display all errors/warnings
         for (ValidationError e : validResult.getErrors()) {
             String ruleId = e.getRuleId() != null ? e.getRuleId() : "UNDEFINED";
@@ -113,15 +124,15 @@ public class CustomUBL implements Callable<Integer> {
         // Send to PA if F (force) mode and only warnings (not in validation-only mode)
         if (pParamType.shouldSendToPA() && "F".equalsIgnoreCase(pSendToPA) && hasOnlyWarnings) {
             log(LogCatalog.ublForceSendToPA(docName));
-            sendToPlatformAPI(ublFile, docName, dbHandler, conn);
+            sendToPlatformAPI(ctx, docName, dbHandler, conn);
         }
     }
 
     /**
      * Handle validation success - log success and send to PA if enabled
      */
-    private void handleValidationSuccess(String typePiece, String docName, String ublFile,
-            UBLDatabaseHandler dbHandler, Connection conn) {
+    private void handleValidationSuccess(String typePiece, String docName, InvoiceContext ctx,
+            UBLDatabaseHandler dbHandler, Connection conn) throws TransformerException, IOException {
         log(LogCatalog.ublValidationSuccess(typePiece, docName));
 
         // Update status to VALIDATED
@@ -132,18 +143,19 @@ public class CustomUBL implements Callable<Integer> {
                 && ("Y".equalsIgnoreCase(pSendToPA) || "F".equalsIgnoreCase(pSendToPA));
 
         if (shouldSendToPA) {
-            sendToPlatformAPI(ublFile, docName, dbHandler, conn);
+            sendToPlatformAPI(ctx, docName, dbHandler, conn);
         }
     }
 
     /**
      * Helper method to send document to Platform API and handle status updates
      */
-    private void sendToPlatformAPI(String ublFile, String docName, UBLDatabaseHandler dbHandler, Connection conn) {
+    private void sendToPlatformAPI(InvoiceContext ctx, String docName, UBLDatabaseHandler dbHandler,
+            Connection conn) throws TransformerException, IOException {
         // Update status before sending
         updateStatus(InvoiceStatusCatalog.sent(), dbHandler, conn);
 
-        boolean sendSuccess = pPlatformApiClient.sendDocument(ublFile, docName);
+        boolean sendSuccess = pPlatformApiClient.sendDocument(ublContent(ctx), docName);
 
         if (!sendSuccess) {
             // Log error in validation results
@@ -157,6 +169,7 @@ public class CustomUBL implements Callable<Integer> {
         } else {
             // Update status to DEPOSEE (deposited)
             updateStatus(InvoiceStatusCatalog.deposited(), dbHandler, conn);
+            checkpoint(ctx, RunJournal.STAGE_SENT);
         }
     }
 
@@ -169,24 +182,42 @@ public class CustomUBL implements Callable<Integer> {
     }
 
     // Déclaration des variables
-    public CustomUBL(int startI, int endI, NodeList inputNode, ByteArrayOutputStream baos, String inTmpl,
+    public CustomUBL(InvoiceQueue inputQueue, XslTemplate inXslTemplate, String inTmpl,
             String inFileName, String inConfig, ProcessingType inParamType, UBLValidator inUBLValidator,
-            TokenManager inTokenManager, boolean inDisplayError) {
+            TokenManager inTokenManager, RunJournal inJournal, Quarantine inQuarantine,
+            ConcurrencyController inController, boolean inDisplayError) {
         displayError = inDisplayError || (pUpdateDB != null && pUpdateDB.equalsIgnoreCase("N"));
-        startInvoice = startI;
-        endInvoice = endI;
-        list = inputNode;
-        xslOutStream = baos;
+        queue = inputQueue;
+        xslTemplate = inXslTemplate;
         pTemplate = inTmpl;
         pFileName = inFileName;
         configFile = inConfig;
         pParamType = inParamType;
         pUBLValidator = inUBLValidator;
         pTokenManager = inTokenManager;
+        journal = inJournal;
+        quarantine = inQuarantine;
+        controller = inController;
+    }
+
+    /**
+     * Uses the PDFs already rendered in tempOutput by the bursting engine;
+     * a document without PDF is still rendered on its own
+     */
+    public void setPreRenderedPDF(boolean preRenderedPDF) {
+        this.preRenderedPDF = preRenderedPDF;
+    }
+
+    /**
+     * Pool from which the steps run without connection borrow one to write
+     * their errors (pipeline mode)
+     */
+    void setConnectionPool(ConnectionPool connectionPool) {
+        this.connectionPool = connectionPool;
     }
 
     // Chargement du fichier de configuration
-    private void Init() {
+    void Init() {
         try {
             File file = new File(configFile);
             Serializer serializer = new Persister();
@@ -200,6 +231,11 @@ public class CustomUBL implements Callable<Integer> {
             pDirInput = replaceConstValue(resource.getProperty("dirInput"));
             pRunGS = resource.getProperty("runGS");
             pCmdGS = resource.getProperty("cmdGS");
+            String gsWorkers = resource.getProperty("gsWorkers", "");
+            pGSWorkers = gsWorkers.isBlank() ? Runtime.getRuntime().availableProcessors()
+                    : Integer.parseInt(gsWorkers);
+            pCompressOutput = resource.getProperty("compressOutput", "N");
+            pPdfInMemory = resource.getProperty("pdfInMemory", "N");
             pURL = resource.getProperty("URL");
             pSchema = resource.getProperty("schema");
             pUpdateDB = resource.getProperty("updateDB");
@@ -236,6 +272,20 @@ public class CustomUBL implements Callable<Integer> {
             pUblXsltPath = replaceConstValue(resource.getProperty("ublXslt"));
             pAttachment = resource.getProperty("attachment");
 
+            // Champs de la facture lus en un seul parcours du DOM
+            Map<String, String> fields = new LinkedHashMap<>();
+            fields.put(FieldExtractor.DOC_ID, pdoc);
+            fields.put(FieldExtractor.TYPE_JDE, pdct);
+            fields.put(FieldExtractor.SOCIETE_JDE, pkco);
+            fields.put(FieldExtractor.ACTIVITE, pActivite);
+            fields.put(FieldExtractor.TYPE_PIECE, pTypePiece);
+            fields.put(FieldExtractor.NUM_CLIENT, pNumClient);
+            fields.put(FieldExtractor.MONTANT, pMontant);
+            fields.put(FieldExtractor.DATE_PIECE, pDatePiece);
+            fields.put(FieldExtractor.DATE_ECHEANCE, pDateEcheance);
+            fields.put(FieldExtractor.CODE_ROUTAGE, pCodeRoutage);
+            fieldExtractor = new FieldExtractor(fields);
+
             // Initialize PA API client (real or mock)
             if ("Y".equalsIgnoreCase(useMock)) {
                 MockPlatformApiClient.MockBehavior behavior = MockPlatformApiClient.MockBehavior.ALWAYS_SUCCESS;
@@ -269,177 +319,451 @@ public class CustomUBL implements Callable<Integer> {
         }
     }
 
-    @Override
-    public Integer call() throws Exception {
+    /* Mise à jour des tables de la base */
+    boolean updatesDatabase() {
+        return "Y".equalsIgnoreCase(pUpdateDB);
+    }
 
-        Init();
+    /* Connexion de la base, null si la mise à jour est désactivée */
+    Connection openConnection() throws Exception {
+        if (!pUpdateDB.equals("Y")) {
+            return null;
+        }
+        // register oracle driver
+        Class.forName("oracle.jdbc.OracleDriver");
+        // connect to oracle and login
+        return DriverManager.getConnection(pURL, pDBUser, pDBPasswd);
+    }
+
+    /*
+     * Facture en erreur : mise en quarantaine avec sa cause, les autres
+     * factures continuent. Sans quarantaine, l'erreur arrête le traitement.
+     */
+    void quarantine(InvoiceContext ctx, Throwable e) throws Exception {
+        if (quarantine == null) {
+            System.out.println(e);
+            throw new Exception("Thread interrompu ; cause " + ctx.getIndex() + " / " + e.getMessage());
+        }
+        ctx.setQuarantined(true);
+        String name = ctx.getDoc() != null ? ctx.getDocName() : String.valueOf(ctx.getIndex());
+        log(LogCatalog.documentQuarantined(name, e.getMessage()));
+        quarantine.add(name, ctx.getFragment(), e);
+        if (ctx.getDoc() != null) {
+            checkpoint(ctx, RunJournal.STAGE_QUARANTINED);
+        }
+    }
 
-        TransformerFactory tranFactory = TransformerFactory.newInstance();
-        Transformer aTransformer = tranFactory.newTransformer();
+    @Override
+    public Integer call() throws Exception {
 
         Connection conn = null;
-        if (pUpdateDB.equals("Y")) {
-            // register oracle driver
-            Class.forName("oracle.jdbc.OracleDriver");
-            // connect to oracle and login
-            conn = DriverManager.getConnection(pURL, pDBUser, pDBPasswd);
-        }
+        try {
+            Init();
 
-        for (int i = startInvoice; i < endInvoice; i++) {
-            Node element = list.item(i).cloneNode(true);
+            DocumentBuilder builder = newInvoiceBuilder();
 
-            if (element.hasChildNodes()) {
-                Source src = new DOMSource(element);
+            // Chaque worker prend les factures suivantes dès qu'il est libre
+            while (true) {
+                // Nombre de workers actifs fixé par le contrôleur de concurrence
+                if (controller != null) {
+                    controller.acquire();
+                }
+                int count = 0;
+                long start = 0;
                 try {
-                    String doc = Tools.getNodeString(pdoc, (Element) element);
-                    String dct = Tools.getNodeString(pdct, (Element) element);
-                    String kco = Tools.getNodeString(pkco, (Element) element);
-                    String activite = Tools.getNodeString(pActivite, (Element) element);
-                    String typePiece = Tools.getNodeString(pTypePiece, (Element) element);
-                    // Create database handler for legacy tables
-                    UBLDatabaseHandler dbHandler = new UBLDatabaseHandler(conn, pSchema, doc, dct, kco, displayError);
-
-                    boolean isDocOK = true;
-
-                    // INSERT table F564230
-                    if ("Y".equalsIgnoreCase(pUpdateDB) && conn != null) {
-                        try {
-                            isDocOK = dbHandler.insertDocumentLog(activite, typePiece,
-                                    (Element) element, pNumClient, pMontant, pDatePiece, pDateEcheance, pCodeRoutage,
-                                    pFileName, pTableLog);
-                        } catch (Exception e) {
-                            log(LogCatalog.dbInsertFailed(e.getMessage()));
-                        }
+                    InvoiceQueue.Batch batch = queue.takeBatch();
+                    if (batch == null) {
+                        break;
                     }
-
-                    if (isDocOK) {
-                        String docName = activite + "_" + typePiece + "_" + doc + "_" + dct + "_" + kco;
-
-                        InputStream is;
-                        try (ByteArrayOutputStream outputStream = new ByteArrayOutputStream()) {
-                            Result outputTarget = new StreamResult(outputStream);
-                            aTransformer.transform(src, outputTarget);
-                            is = new ByteArrayInputStream(outputStream.toByteArray());
-
-                            if (pParamType.involvesPDF()
-                                    || (pAttachment != null && pAttachment.equals("create"))) {
-                                // Recreate InputStream for PDF generation (consumed by UBL in BOTH mode)
-                                is = new ByteArrayInputStream(outputStream.toByteArray());
-
-                                if (!BIPublisher.convertToPDF(is, pTempOutput + docName + ".pdf", xslOutStream,
-                                        pXdoConfig, pSetLocale)) {
-                                    if (pUpdateDB.equals("Y")) {
-                                        ValidationResult errResult = new ValidationResult();
-                                        errResult.addError(ErrorCatalog.pdfCreationError());
-                                        dbHandler.insertValidationResults(errResult);
-                                    }
-                                } else {
-
-                                    String gsExec = "cp " + pTempOutput + docName + ".pdf " + pDirOutput +
-                                            docName + ".pdf";
-                                    if (pRunGS.equals("Y")) {
-                                        gsExec = pCmdGS + pDirOutput + docName + ".pdf " + pTempOutput + docName +
-                                                ".pdf";
-                                    }
-                                    Tools.executeGS(gsExec);
-
-                                    is = new ByteArrayInputStream(outputStream.toByteArray());
-                                    if (!Tranform.convertToXML(is, pDirOutput + docName + ".xml", pXslTemplate)) {
-                                        if (pUpdateDB.equals("Y")) {
-                                            ValidationResult errResult = new ValidationResult();
-                                            errResult.addError(ErrorCatalog.xmlCreationError());
-                                            dbHandler.insertValidationResults(errResult);
-                                        }
-                                    }
-
-                                }
-
-                            }
-
-                            if (pParamType.involvesUBL()) {
-                                // Recreate InputStream for UBL conversion (may have been consumed by PDF/XML
-                                // generation)
-                                is = new ByteArrayInputStream(outputStream.toByteArray());
-
-                                String ublFile = pDirOutput + docName + "_ubl.xml";
-                                if (!Tranform.convertToUBL(is, ublFile, pUblXsltPath)) {
-                                    if (pUpdateDB.equals("Y")) {
-                                        ValidationResult errResult = new ValidationResult();
-                                        errResult.addError(ErrorCatalog.ublCreationError());
-                                        dbHandler.insertValidationResults(errResult);
-                                    }
-                                } else {
-                                    // Add PDF attachment if required (not in validation-only mode)
-                                    if (pParamType.shouldSendToPA() && pAttachment != null
-                                            && (pAttachment.equals("create") || pAttachment.equals("attach"))) {
-                                        String pdfFile = pDirInput + docName + ".pdf";
-                                        if (pAttachment.equals("create"))
-                                            pdfFile = pDirOutput + docName + ".pdf";
-
-                                        String pdfFileName = docName + ".pdf";
-                                        if (!Tranform.embedPdfInUBL(ublFile, pdfFile, pdfFileName)) {
-                                            log(LogCatalog.ublAttachmentError(docName));
-                                        } else {
-                                            log(LogCatalog.ublAttachmentSuccess(docName));
-                                        }
-                                    }
-
-                                    Document ublDoc = Tranform.parseUBLFile(ublFile);
-                                    ValidationResult validResult = pUBLValidator.validateUbl(ublDoc);
-
-                                    // Populate UBL tables if enabled (before sending to PA)
-                                    if ("Y".equalsIgnoreCase(pUpdateDB) && conn != null) {
-                                        try {
-
-                                            // Insert lifecycle event: CREATED
-                                            InvoiceStatusCatalog.created().apply(dbHandler);
-
-                                            // Insert header
-                                            String numClient = Tools.getNodeString(pNumClient, (Element) element);
-                                            if (dbHandler.insertUBLHeader(ublDoc,
-                                                    null, null, null, null, numClient,
-                                                    InvoiceStatusCatalog.STATUS_CREATED,
-                                                    InvoiceStatusCatalog.MSG_CREATED)) {
-                                                // Insert lines
-                                                dbHandler.insertUBLLines(ublDoc);
-
-                                                // Insert VAT summary
-                                                dbHandler.insertVATSummary(ublDoc);
-
-                                                // Insert validation results
-                                                dbHandler.insertValidationResults(
-                                                        validResult);
-                                            }
-                                        } catch (Exception e) {
-                                            log(LogCatalog.dbUblTablesFailed(docName));
-                                            log(LogCatalog.dbUblTablesError(e.getMessage()));
-                                            e.printStackTrace();
-                                        }
-                                    }
-
-                                    // Process validation results
-                                    if (!validResult.isValid()) {
-                                        handleValidationFailure(validResult, docName, ublFile, dbHandler, conn);
-                                    } else {
-                                        handleValidationSuccess(typePiece, docName, ublFile, dbHandler, conn);
-                                    }
-                                }
-                            }
-                        }
-
-                        is.close();
+                    start = System.nanoTime();
+                    // Connexion ouverte seulement par un worker qui a un slot
+                    if (controller != null) {
+                        conn = controller.takeConnection(this::openConnection);
+                    } else if (conn == null) {
+                        conn = openConnection();
+                    }
+                    for (InvoiceFragment fragment : batch.getFragments()) {
+                        processInvoice(newContext(fragment), builder, conn);
+                        count++;
+                    }
+                    if (controller != null) {
+                        // Rendue avec le slot, pour le prochain worker
+                        controller.returnConnection(conn);
+                        conn = null;
+                    }
+                } finally {
+                    if (controller != null) {
+                        controller.release(count, count > 0 ? System.nanoTime() - start : 0);
                     }
-                } catch (IOException | TransformerException | Error e) {
-                    System.out.println(e);
-                    throw new Exception("Thread interrompu ; cause " + i + " / " + e.getMessage());
                 }
             }
+        } catch (Exception e) {
+            // Arrêt de la lecture du spool et des autres workers
+            queue.abort(e);
+            throw e;
+        } finally {
+            if (conn != null)
+                conn.close();
         }
-        if ("Y".equalsIgnoreCase(pUpdateDB))
-            conn.close();
         return 0;
     }
 
+    /**
+     * Creates the context of an invoice taken from the queue, with the memory
+     * counted for it in the queue budget
+     */
+    InvoiceContext newContext(InvoiceFragment fragment) {
+        InvoiceContext ctx = new InvoiceContext(fragment);
+        ctx.addReservedBytes(queue.estimate(fragment.length()));
+        return ctx;
+    }
+
+    /**
+     * Gives back the memory of an invoice that leaves the processing
+     */
+    void release(InvoiceContext ctx) {
+        queue.release(ctx.getReservedBytes());
+        ctx.addReservedBytes(-ctx.getReservedBytes());
+        if (ctx.getPdf() != null) {
+            ctx.getPdf().release();
+            ctx.setPdf(null);
+        }
+    }
+
+    /* Traitement complet d'une facture par un worker */
+    private void processInvoice(InvoiceContext ctx, DocumentBuilder builder, Connection conn) throws Exception {
+        try {
+            if (!extract(ctx, builder, conn)) {
+                return;
+            }
+            render(ctx, conn);
+            if (createUBL(ctx, conn)) {
+                validate(ctx);
+                persist(ctx, conn);
+                send(ctx, conn);
+            }
+            finish(ctx);
+        } catch (VirtualMachineError e) {
+            throw e;
+        } catch (Exception | Error e) {
+            quarantine(ctx, e);
+        } finally {
+            release(ctx);
+        }
+    }
+
+    /*
+     * Analyseur des factures d'un worker : le document obtenu est l'arbre
+     * unique de la facture, lu par la copie XML et la conversion UBL
+     */
+    static DocumentBuilder newInvoiceBuilder() throws ParserConfigurationException {
+        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+        // Espaces de noms conservés pour les transformations XSLT sur l'arbre
+        factory.setNamespaceAware(true);
+        // CDATA fusionnées au texte : une section CDATA d'un arbre DOM est
+        // perdue par certains moteurs XSLT
+        factory.setCoalescing(true);
+        return factory.newDocumentBuilder();
+    }
+
+    /*
+     * Erreurs de la facture dans la base. Une étape du pipeline sans
+     * connexion en emprunte une au pool le temps de l'écriture.
+     */
+    private void insertErrors(InvoiceContext ctx, Connection conn, ValidationResult errResult) throws Exception {
+        if (conn != null) {
+            dbHandler(ctx, conn).insertValidationResults(errResult);
+        } else if (connectionPool != null) {
+            Connection borrowed = connectionPool.borrow();
+            try {
+                dbHandler(ctx, borrowed).insertValidationResults(errResult);
+            } finally {
+                connectionPool.release(borrowed);
+            }
+        }
+    }
+
+    /* Gestionnaire des tables de la facture pour une connexion */
+    private UBLDatabaseHandler dbHandler(InvoiceContext ctx, Connection conn) throws Exception {
+        UBLDatabaseHandler dbHandler = ctx.getDbHandler(conn);
+        if (dbHandler == null) {
+            dbHandler = new UBLDatabaseHandler(conn, pSchema, ctx.getDoc(), ctx.getDct(), ctx.getKco(), displayError);
+            ctx.setDbHandler(dbHandler, conn);
+        }
+        return dbHandler;
+    }
+
+    /**
+     * Step 1 - Parses the invoice fragment, reads its keys and inserts the
+     * document log (F564230). The parsed tree is kept in the context and is
+     * only read by the next steps.
+     *
+     * @return false if the invoice is empty or rejected by the document log
+     */
+    boolean extract(InvoiceContext ctx, DocumentBuilder builder, Connection conn) throws Exception {
+        Element element = builder.parse(ctx.getFragment().openStream()).getDocumentElement();
+
+        if (!element.hasChildNodes()) {
+            return false;
+        }
+        ctx.setElement(element);
+        FieldExtractor.Fields fields = fieldExtractor.extract(element);
+        ctx.setFields(fields);
+        ctx.setKeys(fields.get(FieldExtractor.DOC_ID),
+                fields.get(FieldExtractor.TYPE_JDE),
+                fields.get(FieldExtractor.SOCIETE_JDE),
+                fields.get(FieldExtractor.ACTIVITE),
+                fields.get(FieldExtractor.TYPE_PIECE));
+
+        // Reprise : document déjà traité par l'exécution interrompue
+        String stage = journal != null ? journal.getStage(ctx.getDoc(), ctx.getDct(), ctx.getKco()) : null;
+        if (RunJournal.STAGE_DONE.equals(stage)) {
+            log(LogCatalog.journalSkipped(ctx.getDocName()));
+            return false;
+        }
+        ctx.setResumedStage(stage);
+
+        boolean isDocOK = true;
+
+        // INSERT table F564230
+        if ("Y".equalsIgnoreCase(pUpdateDB) && conn != null && stage == null) {
+            try {
+                isDocOK = dbHandler(ctx, conn).insertDocumentLog(ctx.getActivite(), ctx.getTypePiece(),
+                        element, fields, pFileName, pTableLog);
+            } catch (Exception e) {
+                log(LogCatalog.dbInsertFailed(e.getMessage()));
+            }
+            if (isDocOK) {
+                checkpoint(ctx, RunJournal.STAGE_EXTRACTED);
+            }
+        }
+        return isDocOK;
+    }
 
+    /**
+     * Step 2 - Generates the PDF, runs Ghostscript and writes the XML copy
+     */
+    void render(InvoiceContext ctx, Connection conn) throws Exception {
+        if (!pParamType.involvesPDF() && (pAttachment == null || !pAttachment.equals("create"))) {
+            return;
+        }
+        String docName = ctx.getDocName();
+        InvoiceFragment fragment = ctx.getFragment();
+        String tempPDF = pTempOutput + docName + ".pdf";
+
+        // PDF déjà produit par le moteur de bursting, sinon mise en forme du document seul,
+        // en mémoire si demandé (Ghostscript travaille sur fichiers)
+        boolean burstRendered = preRenderedPDF && new File(tempPDF).isFile();
+        boolean inMemory = !burstRendered && "Y".equalsIgnoreCase(pPdfInMemory) && !"Y".equalsIgnoreCase(pRunGS);
+        boolean rendered;
+        if (inMemory) {
+            ctx.setPdf(PdfBuffer.acquire());
+            rendered = BIPublisher.convertToPDF(fragment.openStream(), ctx.getPdf(), xslTemplate,
+                    pXdoConfig, pSetLocale);
+        } else {
+            rendered = burstRendered || BIPublisher.convertToPDF(fragment.openStream(), tempPDF,
+                    xslTemplate, pXdoConfig, pSetLocale);
+        }
+        if (!rendered) {
+            if (pUpdateDB.equals("Y")) {
+                ValidationResult errResult = new ValidationResult();
+                errResult.addError(ErrorCatalog.pdfCreationError());
+                insertErrors(ctx, conn, errResult);
+            }
+            return;
+        }
+
+        String outputPDF = pDirOutput + docName + ".pdf";
+        if (inMemory) {
+            // PDF gardé en mémoire jusqu'à la fin de la facture, écrit une seule fois
+            ctx.addReservedBytes(queue.reservePdf(ctx.getPdf().size()));
+            ctx.getPdf().publish(outputPDF);
+        } else {
+            // PDF gardé en mémoire jusqu'à l'envoi (pièce jointe UBL)
+            ctx.addReservedBytes(queue.reservePdf(new File(tempPDF).length()));
+
+            // Publication sans processus par facture : renommage atomique, ou Ghostscript résident
+            if ("Y".equalsIgnoreCase(pRunGS)) {
+                GhostscriptPool.forCommand(pCmdGS, pGSWorkers, pTempOutput, pTempOutput, pDirOutput)
+                        .convert(tempPDF, outputPDF);
+            } else {
+                Tools.publish(tempPDF, outputPDF);
+            }
+        }
+
+        // Copie XML produite depuis l'arbre déjà chargé
+        String outputXML = pDirOutput + docName + ".xml";
+        if ("Y".equalsIgnoreCase(pCompressOutput)) {
+            outputXML += Tools.GZIP_SUFFIX;
+        }
+        if (!Tranform.convertToXML(ctx.getSource(), outputXML,
+                pXslTemplate)) {
+            if (pUpdateDB.equals("Y")) {
+                ValidationResult errResult = new ValidationResult();
+                errResult.addError(ErrorCatalog.xmlCreationError());
+                insertErrors(ctx, conn, errResult);
+            }
+        }
+    }
+
+    /**
+     * Step 3 - Converts the invoice to UBL and embeds the PDF attachment. The
+     * UBL stays in memory until finish() writes it.
+     *
+     * @return false if no UBL has to be validated
+     */
+    boolean createUBL(InvoiceContext ctx, Connection conn) throws Exception {
+        if (!pParamType.involvesUBL()) {
+            return false;
+        }
+        String docName = ctx.getDocName();
+        Document ublDoc = Tranform.convertToUBLDocument(ctx.getSource(), pUblXsltPath);
+        if (ublDoc == null) {
+            if (pUpdateDB.equals("Y")) {
+                ValidationResult errResult = new ValidationResult();
+                errResult.addError(ErrorCatalog.ublCreationError());
+                insertErrors(ctx, conn, errResult);
+            }
+            return false;
+        }
+        ctx.setUblDoc(ublDoc);
+
+        // Add PDF attachment if required (not in validation-only mode)
+        if (pParamType.shouldSendToPA() && pAttachment != null
+                && (pAttachment.equals("create") || pAttachment.equals("attach"))) {
+            String pdfFile = pDirInput + docName + ".pdf";
+            if (pAttachment.equals("create"))
+                pdfFile = pDirOutput + docName + ".pdf";
+
+            String pdfFileName = docName + ".pdf";
+            // PDF rendu en mémoire : encodé directement dans la sortie UBL
+            boolean embedded = pAttachment.equals("create") && ctx.getPdf() != null
+                    ? Tranform.embedPdfInUBL(ublDoc, ctx.getPdf(), pdfFileName)
+                    : Tranform.embedPdfInUBL(ublDoc, pdfFile, pdfFileName);
+            if (!embedded) {
+                log(LogCatalog.ublAttachmentError(docName));
+            } else {
+                log(LogCatalog.ublAttachmentSuccess(docName));
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Step 4 - Validates the UBL against XSD and schematrons
+     *
+     * With a PDF rendered in memory the attachment holds its Base64
+     * placeholder: the XSD only checks that it is base64Binary and the
+     * schematrons only read the mimeCode and filename attributes, so the
+     * result is the same as with the PDF.
+     */
+    void validate(InvoiceContext ctx) throws Exception {
+        ctx.setValidResult(pUBLValidator.validateUbl(ctx.getUblDoc()));
+    }
+
+    /**
+     * Step 5 - Populates the UBL tables (before sending to PA)
+     */
+    void persist(InvoiceContext ctx, Connection conn) throws IOException {
+        if (!"Y".equalsIgnoreCase(pUpdateDB) || conn == null
+                || RunJournal.STAGE_PERSISTED.equals(ctx.getResumedStage())
+                || RunJournal.STAGE_SENT.equals(ctx.getResumedStage())) {
+            return;
+        }
+        boolean persisted = false;
+        try {
+            UBLDatabaseHandler dbHandler = dbHandler(ctx, conn);
+            Document ublDoc = ctx.getUblDoc();
+
+            // Insert lifecycle event: CREATED
+            InvoiceStatusCatalog.created().apply(dbHandler);
+
+            // Insert header, with the UBL as sent (PDF rendered in memory included)
+            String numClient = ctx.getFields().get(FieldExtractor.NUM_CLIENT);
+            if (dbHandler.insertUBLHeader(ublDoc, ublContent(ctx),
+                    null, null, null, null, numClient,
+                    InvoiceStatusCatalog.STATUS_CREATED,
+                    InvoiceStatusCatalog.MSG_CREATED)) {
+                // Insert lines
+                dbHandler.insertUBLLines(ublDoc);
+
+                // Insert VAT summary
+                dbHandler.insertVATSummary(ublDoc);
+
+                // Insert validation results
+                dbHandler.insertValidationResults(ctx.getValidResult());
+                persisted = true;
+            }
+        } catch (Exception e) {
+            log(LogCatalog.dbUblTablesFailed(ctx.getDocName()));
+            log(LogCatalog.dbUblTablesError(e.getMessage()));
+            e.printStackTrace();
+        }
+        if (persisted) {
+            checkpoint(ctx, RunJournal.STAGE_PERSISTED);
+        }
+    }
+
+    /**
+     * Step 6 - Updates the invoice status and sends it to PA
+     */
+    void send(InvoiceContext ctx, Connection conn) throws Exception {
+        // Reprise : document déjà déposé sur la PA par l'exécution interrompue
+        if (RunJournal.STAGE_SENT.equals(ctx.getResumedStage())) {
+            return;
+        }
+        UBLDatabaseHandler dbHandler = dbHandler(ctx, conn);
+        ValidationResult validResult = ctx.getValidResult();
+
+        // Process validation results
+        if (!validResult.isValid()) {
+            handleValidationFailure(validResult, ctx.getDocName(), ctx, dbHandler, conn);
+        } else {
+            handleValidationSuccess(ctx.getTypePiece(), ctx.getDocName(), ctx, dbHandler, conn);
+        }
+    }
+
+    /**
+     * Marks the invoice as finished in the run journal, after its last step
+     */
+    void finish(InvoiceContext ctx) throws IOException, TransformerException {
+        if (!ctx.isQuarantined()) {
+            writeUBL(ctx);
+            checkpoint(ctx, RunJournal.STAGE_DONE);
+        }
+    }
+
+    /* Contenu UBL sérialisé une seule fois, pour l'envoi et pour le fichier */
+    private byte[] ublContent(InvoiceContext ctx) throws TransformerException {
+        if (ctx.getUblContent() == null) {
+            ctx.setUblContent(Tranform.serializeUBL(ctx.getUblDoc(), pUblXsltPath));
+        }
+        return ctx.getUblContent();
+    }
+
+    /* Unique écriture du fichier UBL, directement compressé si demandé */
+    private void writeUBL(InvoiceContext ctx) throws IOException, TransformerException {
+        if (ctx.getUblDoc() == null) {
+            return;
+        }
+        String ublFile = pDirOutput + ctx.getDocName() + "_ubl.xml";
+        if ("Y".equalsIgnoreCase(pCompressOutput)) {
+            ublFile += Tools.GZIP_SUFFIX;
+        }
+        try (OutputStream out = Tools.openOutput(ublFile)) {
+            if (ctx.getUblContent() != null) {
+                out.write(ctx.getUblContent());
+            } else {
+                // UBL non envoyé : sérialisé directement dans le fichier
+                Tranform.serializeUBL(ctx.getUblDoc(), pUblXsltPath, out);
+            }
+        }
+    }
+
+    private void checkpoint(InvoiceContext ctx, String stage) throws IOException {
+        if (journal != null) {
+            journal.record(ctx.getDoc(), ctx.getDct(), ctx.getKco(), stage);
+        }
+    }
 
 }
@@ -0,0 +1,136 @@
+/*
+ * Copyright (c) 2025 NOMANA-IT and/or its affiliates.
+ * All rights reserved. Use is subject to license terms.
+ *
+ * @author fblettner
+ */
+package custom.ubl;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+/**
+ * Reads the configured fields of an invoice in a single walk of its DOM
+ *
+ * The extractor is built once from the tag names of the template (docID,
+ * typeJDE, montant...) and returns the same value as Tools.getNodeString
+ * for each field: the first child of the first element with the tag name,
+ * in document order. The walk stops as soon as every tag has been found.
+ */
+public class FieldExtractor {
+
+    // Champs du template lus pour chaque facture
+    public static final String DOC_ID = "docID";
+    public static final String TYPE_JDE = "typeJDE";
+    public static final String SOCIETE_JDE = "societeJDE";
+    public static final String ACTIVITE = "activite";
+    public static final String TYPE_PIECE = "typePiece";
+    public static final String NUM_CLIENT = "numClient";
+    public static final String MONTANT = "montant";
+    public static final String DATE_PIECE = "datePiece";
+    public static final String DATE_ECHEANCE = "dateEcheance";
+    public static final String CODE_ROUTAGE = "codeRoutage";
+
+    private final Map<String, Integer> fieldIndex = new HashMap<>();
+    // Champs lus pour chaque nom de balise
+    private final Map<String, Tag> tags = new HashMap<>();
+
+    /**
+     * Constructor for FieldExtractor
+     *
+     * @param fields Tag name of each field, by field name; fields without
+     *               tag are always null
+     */
+    public FieldExtractor(Map<String, String> fields) {
+        Map<String, List<Integer>> byTag = new LinkedHashMap<>();
+        for (Map.Entry<String, String> field : fields.entrySet()) {
+            int index = fieldIndex.size();
+            fieldIndex.put(field.getKey(), index);
+            if (field.getValue() != null && !field.getValue().isEmpty()) {
+                byTag.computeIfAbsent(field.getValue(), t -> new ArrayList<>()).add(index);
+            }
+        }
+        for (Map.Entry<String, List<Integer>> tag : byTag.entrySet()) {
+            tags.put(tag.getKey(), new Tag(tags.size(),
+                    tag.getValue().stream().mapToInt(Integer::intValue).toArray()));
+        }
+    }
+
+    /**
+     * Reads all fields below the invoice element
+     */
+    public Fields extract(Element element) {
+        String[] values = new String[fieldIndex.size()];
+        boolean[] found = new boolean[tags.size()];
+        int remaining = tags.size();
+
+        // Parcours en profondeur dans l'ordre du document, sans l'élément racine
+        Node node = element.getFirstChild();
+        while (node != null && remaining > 0) {
+            if (node.getNodeType() == Node.ELEMENT_NODE) {
+                Tag tag = tags.get(((Element) node).getTagName());
+                if (tag != null && !found[tag.slot]) {
+                    found[tag.slot] = true;
+                    Node first = node.getFirstChild();
+                    String value = first != null ? first.getNodeValue() : null;
+                    for (int index : tag.fields) {
+                        values[index] = value;
+                    }
+                    remaining--;
+                }
+            }
+            node = next(node, element);
+        }
+        return new Fields(fieldIndex, values);
+    }
+
+    /* Noeud suivant dans l'ordre du document, null à la fin de l'élément */
+    private static Node next(Node node, Element root) {
+        if (node.getFirstChild() != null) {
+            return node.getFirstChild();
+        }
+        while (node != root) {
+            if (node.getNextSibling() != null) {
+                return node.getNextSibling();
+            }
+            node = node.getParentNode();
+        }
+        return null;
+    }
+
+    private static final class Tag {
+        private final int slot;
+        private final int[] fields;
+
+        private Tag(int slot, int[] fields) {
+            this.slot = slot;
+            this.fields = fields;
+        }
+    }
+
+    /**
+     * Values read from one invoice
+     */
+    public static final class Fields {
+        private final Map<String, Integer> fieldIndex;
+        private final String[] values;
+
+        private Fields(Map<String, Integer> fieldIndex, String[] values) {
+            this.fieldIndex = fieldIndex;
+            this.values = values;
+        }
+
+        /**
+         * @return value of the field, null if the tag is absent or empty
+         */
+        public String get(String field) {
+            Integer index = fieldIndex.get(field);
+            return index != null ? values[index] : null;
+        }
+    }
+}
@@ -9,11 +9,11 @@ public interface IPlatformApiClient {
     /**
      * Sends UBL document to the Platform Agréée (PA)
      * 
-     * @param ublFilePath Path to the UBL XML file
-     * @param docName     Document name for logging
+     * @param ublContent UTF-8 content of the UBL document
+     * @param docName    Document name for logging
      * @return true if successful, false otherwise
      */
-    boolean sendDocument(String ublFilePath, String docName);
+    boolean sendDocument(byte[] ublContent, String docName);
     
     /**
      * Checks if API mode is enabled
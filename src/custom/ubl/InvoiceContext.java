@@ -0,0 +1,194 @@
+/*
+ * Copyright (c) 2025 NOMANA-IT and/or its affiliates.
+ * All rights reserved. Use is subject to license terms.
+ *
+ * @author fblettner
+ */
+package custom.ubl;
+
+import custom.resources.PdfBuffer;
+import java.sql.Connection;
+import javax.xml.transform.Source;
+import javax.xml.transform.dom.DOMSource;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+/**
+ * State of one invoice while it goes through the processing steps of
+ * CustomUBL. In pipeline mode the context is handed from one stage to the
+ * next, so it is only used by one thread at a time.
+ */
+class InvoiceContext {
+
+    private final InvoiceFragment fragment;
+    private Element element;
+    private FieldExtractor.Fields fields;
+    private String doc;
+    private String dct;
+    private String kco;
+    private String activite;
+    private String typePiece;
+    private PdfBuffer pdf;
+    private byte[] ublContent;
+    private Document ublDoc;
+    private ValidationResult validResult;
+    private UBLDatabaseHandler dbHandler;
+    private Connection dbConnection;
+    private String resumedStage;
+    private boolean quarantined;
+    private long reservedBytes;
+
+    InvoiceContext(InvoiceFragment fragment) {
+        this.fragment = fragment;
+    }
+
+    /**
+     * @return position of the invoice in the spool
+     */
+    int getIndex() {
+        return fragment.getIndex();
+    }
+
+    InvoiceFragment getFragment() {
+        return fragment;
+    }
+
+    Element getElement() {
+        return element;
+    }
+
+    void setElement(Element element) {
+        this.element = element;
+    }
+
+    /**
+     * @return source on the parsed invoice, shared by the XML copy and the
+     *         UBL conversion instead of parsing the fragment again
+     */
+    Source getSource() {
+        return new DOMSource(element.getOwnerDocument());
+    }
+
+    /**
+     * @return template fields read from the invoice
+     */
+    FieldExtractor.Fields getFields() {
+        return fields;
+    }
+
+    void setFields(FieldExtractor.Fields fields) {
+        this.fields = fields;
+    }
+
+    void setKeys(String doc, String dct, String kco, String activite, String typePiece) {
+        this.doc = doc;
+        this.dct = dct;
+        this.kco = kco;
+        this.activite = activite;
+        this.typePiece = typePiece;
+    }
+
+    String getDoc() {
+        return doc;
+    }
+
+    String getDct() {
+        return dct;
+    }
+
+    String getKco() {
+        return kco;
+    }
+
+    String getActivite() {
+        return activite;
+    }
+
+    String getTypePiece() {
+        return typePiece;
+    }
+
+    String getDocName() {
+        return activite + "_" + typePiece + "_" + doc + "_" + dct + "_" + kco;
+    }
+
+    /**
+     * @return serialized UBL document, null until it is sent or written
+     */
+    /**
+     * @return PDF rendered in memory, null if it was rendered to a file
+     */
+    PdfBuffer getPdf() {
+        return pdf;
+    }
+
+    void setPdf(PdfBuffer pdf) {
+        this.pdf = pdf;
+    }
+
+    byte[] getUblContent() {
+        return ublContent;
+    }
+
+    void setUblContent(byte[] ublContent) {
+        this.ublContent = ublContent;
+    }
+
+    Document getUblDoc() {
+        return ublDoc;
+    }
+
+    void setUblDoc(Document ublDoc) {
+        this.ublDoc = ublDoc;
+    }
+
+    ValidationResult getValidResult() {
+        return validResult;
+    }
+
+    void setValidResult(ValidationResult validResult) {
+        this.validResult = validResult;
+    }
+
+    /**
+     * @return stage reached before the resumed run, null for a new document
+     */
+    String getResumedStage() {
+        return resumedStage;
+    }
+
+    void setResumedStage(String resumedStage) {
+        this.resumedStage = resumedStage;
+    }
+
+    boolean isQuarantined() {
+        return quarantined;
+    }
+
+    void setQuarantined(boolean quarantined) {
+        this.quarantined = quarantined;
+    }
+
+    /**
+     * @return estimated memory counted in the queue budget for this invoice
+     */
+    long getReservedBytes() {
+        return reservedBytes;
+    }
+
+    void addReservedBytes(long bytes) {
+        reservedBytes += bytes;
+    }
+
+    /**
+     * @return database handler bound to the given connection, null if none yet
+     */
+    UBLDatabaseHandler getDbHandler(Connection conn) {
+        return (dbHandler != null && dbConnection == conn) ? dbHandler : null;
+    }
+
+    void setDbHandler(UBLDatabaseHandler dbHandler, Connection conn) {
+        this.dbHandler = dbHandler;
+        this.dbConnection = conn;
+    }
+}
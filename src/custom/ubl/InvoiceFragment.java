@@ -0,0 +1,105 @@
+/*
+ * Copyright (c) 2025 NOMANA-IT and/or its affiliates.
+ * All rights reserved. Use is subject to license terms.
+ *
+ * @author fblettner
+ */
+package custom.ubl;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * One invoice of a burst spool, as a self-contained UTF-8 XML document
+ *
+ * The fragment is created once by the spool reader and then only read: each
+ * step opens its own stream on the bytes, so the worker that holds the
+ * invoice parses a private DOM and never shares a node with another thread.
+ * The bytes may be a slice of the mapped spool file: they are then read from
+ * the page cache without being copied on the heap.
+ */
+public final class InvoiceFragment {
+
+    private final int index;
+    private final ByteBuffer xml;
+
+    /**
+     * Constructor for InvoiceFragment
+     *
+     * @param index Position of the invoice in the spool
+     * @param xml   XML document, not modified afterwards
+     */
+    InvoiceFragment(int index, ByteBuffer xml) {
+        this.index = index;
+        this.xml = xml.asReadOnlyBuffer();
+    }
+
+    /**
+     * @return position of the invoice in the spool
+     */
+    public int getIndex() {
+        return index;
+    }
+
+    public int length() {
+        return xml.remaining();
+    }
+
+    /**
+     * @return new stream on the XML document
+     */
+    public InputStream openStream() {
+        return new BufferInputStream(xml.duplicate());
+    }
+
+    public void writeTo(OutputStream out) throws IOException {
+        ByteBuffer buffer = xml.duplicate();
+        byte[] chunk = new byte[Math.min(buffer.remaining(), 64 * 1024)];
+        while (buffer.hasRemaining()) {
+            int n = Math.min(chunk.length, buffer.remaining());
+            buffer.get(chunk, 0, n);
+            out.write(chunk, 0, n);
+        }
+    }
+
+    /* Lecture directe du tampon, sans copie intermédiaire */
+    private static final class BufferInputStream extends InputStream {
+        private final ByteBuffer buffer;
+
+        private BufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) {
+                return 0;
+            }
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            int n = Math.min(len, buffer.remaining());
+            buffer.get(b, off, n);
+            return n;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+
+        @Override
+        public long skip(long n) {
+            int skipped = (int) Math.max(0, Math.min(n, buffer.remaining()));
+            buffer.position(buffer.position() + skipped);
+            return skipped;
+        }
+    }
+}
@@ -0,0 +1,361 @@
+/*
+ * Copyright (c) 2025 NOMANA-IT and/or its affiliates.
+ * All rights reserved. Use is subject to license terms.
+ *
+ * @author fblettner
+ */
+package custom.ubl;
+
+import java.nio.ByteBuffer;
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.xml.parsers.DocumentBuilder;
+
+/**
+ * Staged processing of a burst spool (executionMode = PIPELINE)
+ * Each step of CustomUBL runs in its own stage with its own threads:
+ * extract, render, ubl, validate, persist and send. Stages are connected by
+ * bounded queues, so database and PA calls overlap with rendering and
+ * validation instead of blocking them. Invoices keep the step order of the
+ * worker mode, and the time spent in each stage is reported at the end.
+ *
+ * When an I/O concurrency is given, the persist and send stages run each
+ * document in its own virtual thread (Java 21 and later) instead of a fixed
+ * number of platform threads: thousands of database and PA calls can wait
+ * at the same time without taking CPU from the render and validate stages.
+ *
+ * All stages share one bounded connection pool. The extract, persist and
+ * send stages write for every invoice and borrow a connection for each one;
+ * the render and ubl stages only borrow one to write an error, so the
+ * number of Oracle sessions stays at the pool size.
+ */
+public class InvoicePipeline implements Callable<Integer> {
+
+    public static final String STAGE_EXTRACT = "extract";
+    public static final String STAGE_RENDER = "render";
+    public static final String STAGE_UBL = "ubl";
+    public static final String STAGE_VALIDATE = "validate";
+    public static final String STAGE_PERSIST = "persist";
+    public static final String STAGE_SEND = "send";
+
+    private static final int QUEUE_SIZE_PER_THREAD = 4;
+    private static final long POLL_INTERVAL_MS = 200;
+    // Fin de flux transmise d'une étape à la suivante
+    private static final InvoiceContext END = new InvoiceContext(new InvoiceFragment(-1, ByteBuffer.allocate(0)));
+
+    /* Traitement d'une étape ; false pour arrêter la facture */
+    private interface Step {
+        boolean apply(InvoiceContext ctx, Connection conn) throws Exception;
+    }
+
+    private final InvoiceQueue source;
+    private final CustomUBL processor;
+    private final boolean displayError;
+    private final int dbPoolSize;
+    private ExecutorService ioExecutor;
+    private ConnectionPool connectionPool;
+    private final List<Stage> stages = new ArrayList<>();
+    private final List<LogCatalog.LogEntry> metrics = new ArrayList<>();
+    private volatile Throwable failure;
+
+    /**
+     * Constructor for InvoicePipeline
+     *
+     * @param source       Queue filled by the spool reader
+     * @param processor    Step implementation, initialized once for all stages
+     * @param threads       Number of threads of each stage (STAGE_* keys)
+     * @param ioConcurrency Documents in progress in each I/O stage on virtual
+     *                      threads, 0 to use the platform threads of threads
+     * @param dbPoolSize    Connections shared by all the stages
+     * @param displayError  Print the stage metrics
+     */
+    public InvoicePipeline(InvoiceQueue source, CustomUBL processor, Map<String, Integer> threads,
+            int ioConcurrency, int dbPoolSize, boolean displayError) {
+        this.source = source;
+        this.processor = processor;
+        this.displayError = displayError;
+        this.dbPoolSize = dbPoolSize;
+
+        stages.add(new Stage(STAGE_EXTRACT, threads, 0, true, null));
+        stages.add(new Stage(STAGE_RENDER, threads, 0, false, (ctx, conn) -> {
+            processor.render(ctx, conn);
+            return true;
+        }));
+        stages.add(new Stage(STAGE_UBL, threads, 0, false, processor::createUBL));
+        stages.add(new Stage(STAGE_VALIDATE, threads, 0, false, (ctx, conn) -> {
+            processor.validate(ctx);
+            return true;
+        }));
+        stages.add(new Stage(STAGE_PERSIST, threads, ioConcurrency, true, (ctx, conn) -> {
+            processor.persist(ctx, conn);
+            return true;
+        }));
+        stages.add(new Stage(STAGE_SEND, threads, ioConcurrency, true, (ctx, conn) -> {
+            processor.send(ctx, conn);
+            return true;
+        }));
+    }
+
+    @Override
+    public Integer call() throws Exception {
+        processor.Init();
+        if (stages.stream().anyMatch(stage -> stage.concurrency > 0)) {
+            ioExecutor = newIOExecutor();
+        }
+        if (processor.updatesDatabase()) {
+            connectionPool = new ConnectionPool(processor::openConnection, dbPoolSize);
+            processor.setConnectionPool(connectionPool);
+        }
+
+        int total = 0;
+        for (Stage stage : stages) {
+            total += stage.threads;
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(total);
+        List<Future<Void>> futures = new ArrayList<>();
+        long start = System.nanoTime();
+        try {
+            for (int s = 0; s < stages.size(); s++) {
+                Stage stage = stages.get(s);
+                Stage next = s + 1 < stages.size() ? stages.get(s + 1) : null;
+                for (int t = 0; t < stage.threads; t++) {
+                    futures.add(executor.submit(() -> {
+                        runStage(stage, next);
+                        return null;
+                    }));
+                }
+            }
+
+            Exception error = null;
+            for (Future<Void> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    if (error == null) {
+                        error = e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+                    }
+                }
+            }
+            if (error == null && failure != null) {
+                // Erreur d'une tâche sur thread virtuel
+                error = failure instanceof Exception ? (Exception) failure : new Exception(failure);
+            }
+            if (error != null) {
+                throw error;
+            }
+        } finally {
+            executor.shutdownNow();
+            if (ioExecutor != null) {
+                ioExecutor.shutdownNow();
+            }
+            if (connectionPool != null) {
+                connectionPool.close();
+            }
+            report(System.nanoTime() - start);
+        }
+        return stages.get(0).count.get();
+    }
+
+    /**
+     * @return throughput of each stage, available once the pipeline is finished
+     */
+    public List<LogCatalog.LogEntry> getStageMetrics() {
+        return metrics;
+    }
+
+    /* Boucle d'un thread d'une étape */
+    private void runStage(Stage stage, Stage next) throws Exception {
+        try {
+            if (stage.concurrency > 0) {
+                dispatchLoop(stage, next);
+            } else if (stage.step == null) {
+                extractLoop(stage, next);
+            } else {
+                InvoiceContext ctx;
+                while ((ctx = take(stage)) != END) {
+                    complete(stage, ctx, next);
+                }
+            }
+            // Le dernier thread de l'étape signale la fin à l'étape suivante
+            if (stage.running.decrementAndGet() == 0 && next != null) {
+                for (int t = 0; t < next.threads; t++) {
+                    forward(END, next);
+                }
+            }
+        } catch (Exception e) {
+            fail(e);
+            throw e;
+        }
+    }
+
+    /* Première étape : lecture des factures déposées par le découpage du spool */
+    private void extractLoop(Stage stage, Stage next) throws Exception {
+        DocumentBuilder builder = CustomUBL.newInvoiceBuilder();
+        Step extract = (ctx, c) -> processor.extract(ctx, builder, c);
+
+        InvoiceQueue.Batch batch;
+        while (failure == null && (batch = source.takeBatch()) != null) {
+            for (InvoiceFragment fragment : batch.getFragments()) {
+                InvoiceContext ctx = processor.newContext(fragment);
+                if (apply(stage, extract, ctx)) {
+                    forward(ctx, next);
+                } else {
+                    processor.release(ctx);
+                }
+            }
+        }
+    }
+
+    /*
+     * Etape d'entrée/sortie : un thread virtuel par document, au plus
+     * concurrency documents en cours.
+     */
+    private void dispatchLoop(Stage stage, Stage next) throws Exception {
+        Semaphore permits = new Semaphore(stage.concurrency);
+        InvoiceContext ctx;
+        while ((ctx = take(stage)) != END) {
+            permits.acquire();
+            InvoiceContext current = ctx;
+            ioExecutor.execute(() -> {
+                try {
+                    complete(stage, current, next);
+                } catch (Exception e) {
+                    fail(e);
+                } finally {
+                    permits.release();
+                }
+            });
+        }
+        // Fin de l'étape quand tous les documents en cours sont terminés
+        permits.acquire(stage.concurrency);
+    }
+
+    /* Threads virtuels si la JVM les propose (Java 21), sinon threads classiques */
+    private ExecutorService newIOExecutor() {
+        try {
+            ExecutorService executor = (ExecutorService) Executors.class
+                    .getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+            LogCatalog.pipelineIOThreads(true).print(displayError);
+            return executor;
+        } catch (ReflectiveOperationException e) {
+            LogCatalog.pipelineIOThreads(false).print(displayError);
+            return Executors.newCachedThreadPool();
+        }
+    }
+
+    /* Etape suivante, ou fin de la facture si l'étape l'arrête ou est la dernière */
+    private void complete(Stage stage, InvoiceContext ctx, Stage next) throws Exception {
+        if (apply(stage, stage.step, ctx) && next != null) {
+            forward(ctx, next);
+        } else {
+            try {
+                processor.finish(ctx);
+            } finally {
+                processor.release(ctx);
+            }
+        }
+    }
+
+    /*
+     * Etape appliquée à une facture, avec une connexion du pool le temps du
+     * traitement si l'étape écrit dans la base pour chaque facture. Rendue
+     * avant de passer la facture à l'étape suivante.
+     */
+    private boolean apply(Stage stage, Step step, InvoiceContext ctx) throws Exception {
+        long start = System.nanoTime();
+        // Base inaccessible : arrêt du pipeline, pas une erreur de la facture
+        Connection conn = stage.usesDatabase && connectionPool != null ? connectionPool.borrow() : null;
+        try {
+            return step.apply(ctx, conn);
+        } catch (VirtualMachineError e) {
+            throw e;
+        } catch (Exception | Error e) {
+            // La facture quitte le pipeline, les autres continuent
+            processor.quarantine(ctx, e);
+            return false;
+        } finally {
+            if (conn != null) {
+                connectionPool.release(conn);
+            }
+            stage.busyNanos.addAndGet(System.nanoTime() - start);
+            stage.count.incrementAndGet();
+        }
+    }
+
+    private InvoiceContext take(Stage stage) throws InterruptedException {
+        while (failure == null) {
+            InvoiceContext ctx = stage.input.poll(POLL_INTERVAL_MS, TimeUnit.MILLISECONDS);
+            if (ctx != null) {
+                return ctx;
+            }
+        }
+        return END;
+    }
+
+    private void forward(InvoiceContext ctx, Stage next) throws InterruptedException {
+        while (failure == null) {
+            if (next.input.offer(ctx, POLL_INTERVAL_MS, TimeUnit.MILLISECONDS)) {
+                return;
+            }
+        }
+    }
+
+    /* Arrêt de toutes les étapes et de la lecture du spool */
+    private void fail(Throwable e) {
+        if (failure == null) {
+            failure = e;
+        }
+        source.abort(e);
+    }
+
+    private void report(long elapsedNanos) {
+        long wallMs = Math.max(1, TimeUnit.NANOSECONDS.toMillis(elapsedNanos));
+        for (Stage stage : stages) {
+            long busyMs = TimeUnit.NANOSECONDS.toMillis(stage.busyNanos.get());
+            LogCatalog.LogEntry entry = LogCatalog.pipelineStageMetrics(stage.name,
+                    stage.concurrency > 0 ? stage.concurrency : stage.threads,
+                    stage.count.get(), busyMs, wallMs);
+            entry.print(displayError);
+            metrics.add(entry);
+        }
+    }
+
+    /**
+     * Stage of the pipeline with its input queue and counters
+     */
+    private static class Stage {
+        private final String name;
+        private final int threads;
+        private final int concurrency;
+        private final boolean usesDatabase;
+        private final Step step;
+        private final BlockingQueue<InvoiceContext> input;
+        private final AtomicInteger running;
+        private final AtomicInteger count = new AtomicInteger();
+        private final AtomicLong busyNanos = new AtomicLong();
+
+        private Stage(String name, Map<String, Integer> threads, int concurrency, boolean usesDatabase, Step step) {
+            this.name = name;
+            // Sur threads virtuels, un seul thread distribue les documents
+            this.threads = concurrency > 0 ? 1 : Math.max(1, threads.getOrDefault(name, 1));
+            this.concurrency = concurrency;
+            this.usesDatabase = usesDatabase;
+            this.step = step;
+            this.input = new ArrayBlockingQueue<>(Math.max(this.threads, concurrency) * QUEUE_SIZE_PER_THREAD);
+            this.running = new AtomicInteger(this.threads);
+        }
+    }
+}
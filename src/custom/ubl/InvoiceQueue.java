@@ -0,0 +1,246 @@
+/*
+ * Copyright (c) 2025 NOMANA-IT and/or its affiliates.
+ * All rights reserved. Use is subject to license terms.
+ *
+ * @author fblettner
+ */
+package custom.ubl;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounded queue of invoice fragments shared by all workers of a job.
+ *
+ * Idle workers take the next invoices as soon as they are free, so a worker
+ * busy on a large invoice never holds back the others. Batch size follows
+ * the queue depth (guided self-scheduling): a few invoices per take while
+ * the queue is full, a single invoice near the end of the spool. Each
+ * invoice is queued as an InvoiceFragment numbered in spool order, and
+ * belongs to the worker that takes it.
+ *
+ * With a MemoryBudget, the queue also counts the estimated memory of the
+ * invoices in progress, from the spool reader to the end of their
+ * processing. The reader waits while the budget is used up, so a high
+ * number of workers on large invoices does not run out of heap.
+ */
+public class InvoiceQueue {
+
+    private static final int MAX_BATCH_SIZE = 16;
+
+    private final ArrayDeque<InvoiceFragment> fragments = new ArrayDeque<>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+    private final int capacity;
+    private final int workers;
+    private int nextIndex;
+    private boolean closed;
+    private Throwable failure;
+    private final MemoryBudget budget;
+    private long inFlightBytes;
+    private long peakBytes;
+    private int pauses;
+
+    /**
+     * Constructor for InvoiceQueue
+     *
+     * @param workers Number of workers taking invoices from the queue
+     */
+    public InvoiceQueue(int workers) {
+        this(workers, null);
+    }
+
+    /**
+     * Constructor for InvoiceQueue
+     *
+     * @param workers Number of workers taking invoices from the queue
+     * @param budget  Memory allowed for the invoices in progress, null for no
+     *                limit
+     */
+    public InvoiceQueue(int workers, MemoryBudget budget) {
+        this.workers = Math.max(1, workers);
+        this.capacity = this.workers * MAX_BATCH_SIZE * 2;
+        this.budget = budget;
+    }
+
+    /**
+     * Adds an invoice, waiting while the queue is full or the memory budget
+     * used up
+     *
+     * @param fragment Invoice XML fragment, not to be modified afterwards
+     * @return false if the queue was aborted by a worker
+     */
+    public boolean put(ByteBuffer fragment) throws InterruptedException {
+        long bytes = estimate(fragment.remaining());
+        lock.lock();
+        try {
+            boolean paused = false;
+            while ((fragments.size() >= capacity || overBudget(bytes)) && failure == null) {
+                if (!paused && overBudget(bytes)) {
+                    paused = true;
+                    pauses++;
+                }
+                notFull.await();
+            }
+            if (failure != null) {
+                return false;
+            }
+            add(bytes);
+            fragments.add(new InvoiceFragment(nextIndex++, fragment));
+            notEmpty.signal();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Takes the next invoices, waiting while the queue is empty
+     *
+     * @return next batch, null when the spool is finished or the queue aborted
+     */
+    public Batch takeBatch() throws InterruptedException {
+        lock.lock();
+        try {
+            while (fragments.isEmpty() && !closed && failure == null) {
+                notEmpty.await();
+            }
+            if (fragments.isEmpty() || failure != null) {
+                return null;
+            }
+            int size = Math.max(1, Math.min(MAX_BATCH_SIZE, fragments.size() / (2 * workers)));
+            List<InvoiceFragment> taken = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                taken.add(fragments.poll());
+            }
+            Batch batch = new Batch(taken);
+            notFull.signalAll();
+            return batch;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /* Une facture seule est toujours acceptée, même au-delà du budget */
+    private boolean overBudget(long bytes) {
+        return budget != null && inFlightBytes > 0 && inFlightBytes + bytes > budget.getLimitBytes();
+    }
+
+    private void add(long bytes) {
+        inFlightBytes += bytes;
+        peakBytes = Math.max(peakBytes, inFlightBytes);
+    }
+
+    /**
+     * @return estimated memory of an invoice taken from the queue, to give
+     *         back with release() once it is finished
+     */
+    public long estimate(int fragmentLength) {
+        return budget != null ? budget.estimate(fragmentLength) : 0;
+    }
+
+    /**
+     * Adds the memory of a rendered PDF to an invoice in progress, without
+     * waiting: the invoice must be able to finish
+     *
+     * @return bytes to give back with release()
+     */
+    public long reservePdf(long pdfLength) {
+        if (budget == null) {
+            return 0;
+        }
+        long bytes = budget.estimatePdf(pdfLength);
+        lock.lock();
+        try {
+            add(bytes);
+        } finally {
+            lock.unlock();
+        }
+        return bytes;
+    }
+
+    /**
+     * Gives back the memory of a finished invoice, the spool reader resumes
+     * if it was waiting for it
+     */
+    public void release(long bytes) {
+        if (bytes == 0) {
+            return;
+        }
+        lock.lock();
+        try {
+            inFlightBytes -= bytes;
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return memory budget summary, null without budget
+     */
+    public LogCatalog.LogEntry getMemoryReport() {
+        if (budget == null) {
+            return null;
+        }
+        lock.lock();
+        try {
+            return LogCatalog.memoryBudgetUsage(budget.getLimitBytes() >> 20, peakBytes >> 20, pauses);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Marks the end of the spool, workers stop when the queue is empty
+     */
+    public void close() {
+        lock.lock();
+        try {
+            closed = true;
+            notEmpty.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Stops the spool reader and all workers
+     *
+     * @param cause Error that stopped the processing
+     */
+    public void abort(Throwable cause) {
+        lock.lock();
+        try {
+            if (failure == null) {
+                failure = cause;
+            }
+            fragments.clear();
+            notEmpty.signalAll();
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Invoices taken together by a worker
+     */
+    public static class Batch {
+        private final List<InvoiceFragment> fragments;
+
+        private Batch(List<InvoiceFragment> fragments) {
+            this.fragments = Collections.unmodifiableList(fragments);
+        }
+
+        public List<InvoiceFragment> getFragments() {
+            return fragments;
+        }
+    }
+}
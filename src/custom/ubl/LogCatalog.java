@@ -47,6 +47,14 @@ public class LogCatalog {
     public static final String SUB_PROCESSING = "Processing";
     public static final String SUB_INITIALIZATION = "Initialization";
     public static final String SUB_CONFIGURATION = "Configuration";
+    public static final String SUB_DAEMON = "Daemon";
+    public static final String SUB_PIPELINE = "Pipeline";
+    public static final String SUB_CONCURRENCY = "Concurrency";
+    public static final String SUB_MEMORY = "Memory";
+    public static final String SUB_RENDER = "Render";
+    public static final String SUB_SHARD = "Shard";
+    public static final String SUB_JOURNAL = "Journal";
+    public static final String SUB_QUARANTINE = "Quarantine";
 
     /**
      * Log entry class to build structured log messages
@@ -368,6 +376,233 @@ public class LogCatalog {
                 .build();
     }
 
+    /**
+     * Daemon related logs
+     */
+    public static LogEntry daemonStarted(String type, String directories) {
+        return LogEntry.builder()
+                .level(LEVEL_INFO)
+                .module(MODULE_SYSTEM)
+                .submodule(SUB_DAEMON)
+                .message("Started in " + type + " mode, watching " + directories)
+                .build();
+    }
+
+    public static LogEntry daemonFileProcessed(String template, String fileName, long elapsedMs) {
+        return LogEntry.builder()
+                .level(LEVEL_SUCCESS)
+                .module(MODULE_SYSTEM)
+                .submodule(SUB_DAEMON)
+                .message(template + "/" + fileName + " processed in " + elapsedMs + " ms")
+                .build();
+    }
+
+    public static LogEntry daemonFileFailed(String template, String fileName, String error) {
+        return LogEntry.builder()
+                .level(LEVEL_ERROR)
+                .module(MODULE_SYSTEM)
+                .submodule(SUB_DAEMON)
+                .message(template + "/" + fileName + " failed, kept until it is replaced: " + error)
+                .build();
+    }
+
+    public static LogEntry daemonStopped() {
+        return LogEntry.builder()
+                .level(LEVEL_INFO)
+                .module(MODULE_SYSTEM)
+                .submodule(SUB_DAEMON)
+                .message("Stopped")
+                .build();
+    }
+
+    /**
+     * Pipeline related logs
+     */
+    public static LogEntry pipelineIOThreads(boolean virtual) {
+        return LogEntry.builder()
+                .level(virtual ? LEVEL_INFO : LEVEL_WARNING)
+                .module(MODULE_SYSTEM)
+                .submodule(SUB_PIPELINE)
+                .message(virtual ? "persist and send stages run on virtual threads"
+                        : "virtual threads need Java 21, persist and send stages run on platform threads")
+                .build();
+    }
+
+    public static LogEntry pipelineStageMetrics(String stage, int threads, int count, long busyMs, long wallMs) {
+        return LogEntry.builder()
+                .level(LEVEL_INFO)
+                .module(MODULE_SYSTEM)
+                .submodule(SUB_PIPELINE)
+                .message(String.format("%s: %d thread(s), %d document(s), busy %d ms, %.1f doc/s, usage %d%%",
+                        stage, threads, count, busyMs, count * 1000.0 / wallMs,
+                        busyMs * 100 / (wallMs * threads)))
+                .build();
+    }
+
+    /**
+     * Adaptive concurrency related logs
+     */
+    public static LogEntry concurrencyChanged(int previous, int limit, double throughput, double latencyMs,
+            String reason) {
+        return LogEntry.builder()
+                .level(LEVEL_INFO)
+                .module(MODULE_SYSTEM)
+                .submodule(SUB_CONCURRENCY)
+                .message(String.format("workers %d -> %d (%s): %.1f doc/s, %.0f ms/doc",
+                        previous, limit, reason, throughput, latencyMs))
+                .build();
+    }
+
+    /**
+     * Memory budget related logs
+     */
+    public static LogEntry memoryBudgetUsage(long budgetMB, long peakMB, int pauses) {
+        return LogEntry.builder()
+                .level(LEVEL_INFO)
+                .module(MODULE_SYSTEM)
+                .submodule(SUB_MEMORY)
+                .message("budget " + budgetMB + " MB, peak estimate " + peakMB + " MB, spool reading paused "
+                        + pauses + " time(s)")
+                .build();
+    }
+
+    /**
+     * PDF rendering related logs
+     */
+    public static LogEntry renderMetrics(long documents, long setupMs, long layoutMs, long loads, long loadMs) {
+        return LogEntry.builder()
+                .level(LEVEL_INFO)
+                .module(MODULE_SYSTEM)
+                .submodule(SUB_RENDER)
+                .message(String.format("%d PDF(s): setup %d ms, layout %d ms, %.1f ms/doc, xdo.cfg loaded %d time(s) in %d ms",
+                        documents, setupMs, layoutMs, (setupMs + layoutMs) / (double) documents, loads, loadMs))
+                .build();
+    }
+
+    public static LogEntry fontNotFound(String path) {
+        return LogEntry.builder()
+                .level(LEVEL_WARNING)
+                .module(MODULE_PDF)
+                .submodule(SUB_RENDER)
+                .message("Font file not found: " + path)
+                .build();
+    }
+
+    public static LogEntry xslCacheNotWritten(String path, String message) {
+        return LogEntry.builder()
+                .level(LEVEL_WARNING)
+                .module(MODULE_PDF)
+                .submodule(SUB_RENDER)
+                .message("XSL cache " + path + " not written: " + message)
+                .build();
+    }
+
+    /**
+     * Distributed mode related logs
+     */
+    public static LogEntry shardIndexed(int shards, int documents, String directory) {
+        return LogEntry.builder()
+                .level(LEVEL_INFO)
+                .module(MODULE_SYSTEM)
+                .submodule(SUB_SHARD)
+                .message("Spool indexed: " + documents + " document(s) in " + shards + " shard(s) in " + directory)
+                .build();
+    }
+
+    public static LogEntry shardProcessed(int number, String nodeId, boolean failed) {
+        return LogEntry.builder()
+                .level(failed ? LEVEL_WARNING : LEVEL_INFO)
+                .module(MODULE_SYSTEM)
+                .submodule(SUB_SHARD)
+                .message(String.format("shard %05d processed by %s%s", number, nodeId,
+                        failed ? ", documents in quarantine" : ""))
+                .build();
+    }
+
+    public static LogEntry shardLeaseExpired(String lease, String owner) {
+        return LogEntry.builder()
+                .level(LEVEL_WARNING)
+                .module(MODULE_SYSTEM)
+                .submodule(SUB_SHARD)
+                .message("Lease " + lease + " of " + owner + " expired, taken over")
+                .build();
+    }
+
+    public static LogEntry shardLeaseLost(String lease, String nodeId) {
+        return LogEntry.builder()
+                .level(LEVEL_WARNING)
+                .module(MODULE_SYSTEM)
+                .submodule(SUB_SHARD)
+                .message("Lease " + lease + " of " + nodeId + " lost, shard left to the new owner")
+                .build();
+    }
+
+    public static LogEntry shardDirectoryReset(String directory) {
+        return LogEntry.builder()
+                .level(LEVEL_INFO)
+                .module(MODULE_SYSTEM)
+                .submodule(SUB_SHARD)
+                .message("Shard directory " + directory + " belongs to an earlier spool, emptied")
+                .build();
+    }
+
+    public static LogEntry shardsAssembled(int shards, String directory) {
+        return LogEntry.builder()
+                .level(LEVEL_INFO)
+                .module(MODULE_SYSTEM)
+                .submodule(SUB_SHARD)
+                .message(shards + " shard(s) finished, output published to " + directory)
+                .build();
+    }
+
+    /**
+     * Run journal related logs
+     */
+    public static LogEntry journalResumed(String journalFile, int doneCount) {
+        return LogEntry.builder()
+                .level(LEVEL_INFO)
+                .module(MODULE_SYSTEM)
+                .submodule(SUB_JOURNAL)
+                .message("Resuming from " + journalFile + ", " + doneCount + " document(s) already finished")
+                .build();
+    }
+
+    public static LogEntry journalSkipped(String docName) {
+        return LogEntry.builder()
+                .level(LEVEL_INFO)
+                .module(MODULE_SYSTEM)
+                .submodule(SUB_JOURNAL)
+                .message("Already finished, skipped: " + docName)
+                .build();
+    }
+
+    public static LogEntry journalKept(String journalFile) {
+        return LogEntry.builder()
+                .level(LEVEL_WARNING)
+                .module(MODULE_SYSTEM)
+                .submodule(SUB_JOURNAL)
+                .message("Run not completed, journal kept for -resume: " + journalFile)
+                .build();
+    }
+
+    public static LogEntry documentQuarantined(String docName, String error) {
+        return LogEntry.builder()
+                .level(LEVEL_ERROR)
+                .module(MODULE_SYSTEM)
+                .submodule(SUB_QUARANTINE)
+                .message(docName + " : " + error)
+                .build();
+    }
+
+    public static LogEntry quarantineSummary(int count, String directory) {
+        return LogEntry.builder()
+                .level(LEVEL_WARNING)
+                .module(MODULE_SYSTEM)
+                .submodule(SUB_QUARANTINE)
+                .message(count + " document(s) in quarantine, other documents published: " + directory)
+                .build();
+    }
+
     /**
      * Generic log creators
      */
@@ -0,0 +1,72 @@
+/*
+ * Copyright (c) 2025 NOMANA-IT and/or its affiliates.
+ * All rights reserved. Use is subject to license terms.
+ *
+ * @author fblettner
+ */
+package custom.ubl;
+
+/**
+ * Heap allowed for the invoices in progress of a burst job
+ *
+ * The size of an invoice in memory is estimated from its XML fragment when
+ * the spool reader queues it: the fragment, its DOM and the UBL DOM. The XSL
+ * template of the PDF rendering is shared by all invoices. Once the PDF is
+ * rendered, its real size is added with the copies kept for the UBL
+ * attachment until the invoice is finished: the base64 text in the UBL DOM,
+ * or the PDF buffer when it is rendered in memory (the DOM then only holds a
+ * placeholder), and the serialized UBL kept for the PA upload. The base64
+ * JSON payload only exists during the HTTP call and is not counted.
+ */
+public class MemoryBudget {
+
+    // Taille d'un DOM par rapport au XML dont il est issu
+    private static final int DOM_FACTOR = 5;
+    // Pièce jointe base64 dans le DOM UBL (PDF relu depuis le fichier)
+    private static final double DOM_ATTACHMENT_FACTOR = 4.0 / 3;
+    // PDF rendu en mémoire, encodé seulement à la sérialisation
+    private static final double BUFFER_ATTACHMENT_FACTOR = 1;
+    // UBL sérialisé (pièce jointe base64 comprise) gardé pour l'envoi PA
+    private static final double PAYLOAD_FACTOR = 4.0 / 3;
+
+    private final long limitBytes;
+    private final int bytesPerFragmentByte;
+    private final double bytesPerPdfByte;
+
+    /**
+     * Constructor for MemoryBudget
+     *
+     * @param limitBytes       Bytes allowed for the invoices in progress
+     * @param type             Processing type of the job
+     * @param createAttachment true when the PDF is embedded in the UBL
+     * @param pdfInMemory      true when the PDF is rendered in memory
+     */
+    public MemoryBudget(long limitBytes, ProcessingType type, boolean createAttachment, boolean pdfInMemory) {
+        this.limitBytes = limitBytes;
+        this.bytesPerFragmentByte = 1 + DOM_FACTOR + (type.involvesUBL() ? DOM_FACTOR : 0);
+        if (createAttachment && type.involvesUBL()) {
+            this.bytesPerPdfByte = (pdfInMemory ? BUFFER_ATTACHMENT_FACTOR : DOM_ATTACHMENT_FACTOR)
+                    + (type.shouldSendToPA() ? PAYLOAD_FACTOR : 0);
+        } else {
+            this.bytesPerPdfByte = 1;
+        }
+    }
+
+    public long getLimitBytes() {
+        return limitBytes;
+    }
+
+    /**
+     * @return estimated memory of an invoice before its PDF is rendered
+     */
+    public long estimate(int fragmentLength) {
+        return (long) fragmentLength * bytesPerFragmentByte;
+    }
+
+    /**
+     * @return memory held for a rendered PDF until the invoice is finished
+     */
+    public long estimatePdf(long pdfLength) {
+        return (long) (pdfLength * bytesPerPdfByte);
+    }
+}
@@ -1,6 +1,5 @@
 package custom.ubl;
 
-import java.io.File;
 
 /**
  * Mock implementation of Platform Agréée (PA) API client for testing
@@ -68,18 +67,17 @@ public class MockPlatformApiClient implements IPlatformApiClient {
     }
     
     @Override
-    public boolean sendDocument(String ublFilePath, String docName) {
+    public boolean sendDocument(byte[] ublContent, String docName) {
         if (!"API".equalsIgnoreCase(mode)) {
             log(LogCatalog.info(LogCatalog.MODULE_PA, LogCatalog.SUB_PA_MODE, 
                 "[MOCK] Not in API mode, skipping send for " + docName));
             return true;
         }
         
-        // Verify file exists
-        File ublFile = new File(ublFilePath);
-        if (!ublFile.exists()) {
+        // Verify content exists
+        if (ublContent == null || ublContent.length == 0) {
             log(LogCatalog.error(LogCatalog.MODULE_PA, LogCatalog.SUB_PA_SEND, 
-                "[MOCK] File not found: " + ublFilePath));
+                "[MOCK] Empty UBL document: " + docName));
             return false;
         }
         
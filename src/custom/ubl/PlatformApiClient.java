@@ -7,6 +7,8 @@ import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
 import java.time.Duration;
 import java.util.Base64;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Client for Platform Agréée (PA) API communication
@@ -14,6 +16,9 @@ import java.util.Base64;
  */
 public class PlatformApiClient implements IPlatformApiClient {
 
+    // Client HTTP partagé par tous les envois : connexions réutilisées entre documents
+    private static final Map<Integer, HttpClient> httpClients = new ConcurrentHashMap<>();
+
     private final String mode;
     private final String apiBaseUrl;
     private final String apiImportEndpoint;
@@ -42,14 +47,14 @@ public class PlatformApiClient implements IPlatformApiClient {
     }
 
     /**
-     * Sends UBL file to the Platform Agréée (PA) via API
+     * Sends UBL document to the Platform Agréée (PA) via API
      * 
-     * @param ublFilePath Path to the UBL XML file
-     * @param docName     Document name for logging
+     * @param ublContent UTF-8 content of the UBL document
+     * @param docName    Document name for logging
      * @return true if successful, false otherwise
      */
     @Override
-    public boolean sendDocument(String ublFilePath, String docName) {
+    public boolean sendDocument(byte[] ublContent, String docName) {
         if (!"API".equalsIgnoreCase(mode)) {
             log(LogCatalog.paNotApi(docName));
             return true;
@@ -61,13 +66,8 @@ public class PlatformApiClient implements IPlatformApiClient {
         }
 
         try {
-            // Read UBL file and encode to base64
-            File ublFile = new File(ublFilePath);
-            byte[] ublBytes = new byte[(int) ublFile.length()];
-            try (FileInputStream fis = new FileInputStream(ublFile)) {
-                fis.read(ublBytes);
-            }
-            String base64Ubl = Base64.getEncoder().encodeToString(ublBytes);
+            // UBL encoded to base64 from memory, without reading the file
+            String base64Ubl = Base64.getEncoder().encodeToString(ublContent);
 
             // Try sending with current token, retry once with refreshed token if 401
             for (int attempt = 0; attempt < 2; attempt++) {
@@ -77,9 +77,9 @@ public class PlatformApiClient implements IPlatformApiClient {
                     return false;
                 }
 
-                HttpClient client = HttpClient.newBuilder()
-                        .connectTimeout(Duration.ofMillis(apiTimeout))
-                        .build();
+                HttpClient client = httpClients.computeIfAbsent(apiTimeout, timeout -> HttpClient.newBuilder()
+                        .connectTimeout(Duration.ofMillis(timeout))
+                        .build());
 
                 String jsonPayload = String.format(
                         "{\"format\":\"xml_ubl\",\"content\":\"%s\",\"postActions\":[]}",
@@ -0,0 +1,103 @@
+/*
+ * Copyright (c) 2025 NOMANA-IT and/or its affiliates.
+ * All rights reserved. Use is subject to license terms.
+ *
+ * @author fblettner
+ */
+package custom.ubl;
+
+/**
+ * Processing slots shared by the jobs of an engine, in two priority lanes
+ *
+ * Interactive work (SINGLE reprints, GUI) and bulk work (BURST, UBL, BOTH)
+ * take a slot for each document or batch they process. Bulk work never
+ * holds more than slots - reserved slots, so an interactive job always finds
+ * a free slot at once. When both lanes wait for a slot, slots are given in
+ * proportion to the lane weights (stride scheduling): four interactive
+ * grants for one bulk grant.
+ */
+public class PriorityLanes {
+
+    public enum Lane {
+        INTERACTIVE(4),
+        BULK(1);
+
+        private final int weight;
+
+        Lane(int weight) {
+            this.weight = weight;
+        }
+
+        public int getWeight() {
+            return weight;
+        }
+    }
+
+    private final int slots;
+    private final int reserved;
+    private final int[] active = new int[2];
+    private final int[] waiting = new int[2];
+    // Temps virtuel de chaque voie, augmenté de 1/poids à chaque attribution
+    private final double[] pass = new double[2];
+
+    /**
+     * Constructor for PriorityLanes
+     *
+     * @param slots    Documents processed at the same time by all the jobs
+     * @param reserved Slots kept free for interactive work
+     */
+    public PriorityLanes(int slots, int reserved) {
+        this.slots = Math.max(2, slots);
+        this.reserved = Math.max(1, Math.min(reserved, this.slots - 1));
+    }
+
+    /**
+     * Takes a slot, waiting while none is free for the lane or while the
+     * other lane has priority
+     */
+    public synchronized void acquire(Lane lane) throws InterruptedException {
+        int l = lane.ordinal();
+        int other = 1 - l;
+        if (active[l] == 0 && waiting[l] == 0) {
+            // Pas de crédit accumulé pendant l'inactivité de la voie
+            pass[l] = Math.max(pass[l], pass[other]);
+        }
+        waiting[l]++;
+        try {
+            while (!available(l) || (waiting[other] > 0 && available(other) && pass[other] < pass[l])) {
+                wait();
+            }
+        } catch (InterruptedException e) {
+            // Le créneau qui revenait à cette voie passe à l'autre voie en attente
+            waiting[l]--;
+            notifyAll();
+            throw e;
+        }
+        waiting[l]--;
+        active[l]++;
+        pass[l] += 1.0 / lane.getWeight();
+    }
+
+    /**
+     * Gives back a slot taken with acquire()
+     */
+    public synchronized void release(Lane lane) {
+        active[lane.ordinal()]--;
+        notifyAll();
+    }
+
+    private boolean available(int l) {
+        if (active[0] + active[1] >= slots) {
+            return false;
+        }
+        return l == Lane.INTERACTIVE.ordinal() || active[Lane.BULK.ordinal()] < slots - reserved;
+    }
+
+    public int getSlots() {
+        return slots;
+    }
+
+    public int getReserved() {
+        return reserved;
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright (c) 2025 NOMANA-IT and/or its affiliates.
+ * All rights reserved. Use is subject to license terms.
+ *
+ * @author fblettner
+ */
+package custom.ubl;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Documents of a burst run that failed
+ * A failing document no longer stops the run: its XML fragment and the
+ * error are written to the quarantine directory, and the other documents
+ * are processed and published. A resumed run then only processes the
+ * quarantined documents again.
+ */
+public class Quarantine {
+
+    private final File directory;
+    private final List<String> documents = Collections.synchronizedList(new ArrayList<>());
+
+    /**
+     * Constructor for Quarantine
+     *
+     * @param directory Directory receiving the failed fragments, created on
+     *                  the first failure
+     */
+    public Quarantine(File directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Keeps a failed document
+     *
+     * @param name     Document name, or its position when the keys are unknown
+     * @param fragment XML fragment of the document
+     * @param error    Cause of the failure
+     */
+    public void add(String name, InvoiceFragment fragment, Throwable error) throws IOException {
+        documents.add(name + " : " + error.getMessage());
+
+        directory.mkdirs();
+        try (OutputStream out = new FileOutputStream(new File(directory, name + ".xml"))) {
+            fragment.writeTo(out);
+        }
+        try (PrintWriter writer = new PrintWriter(new OutputStreamWriter(
+                new FileOutputStream(new File(directory, name + ".error")), StandardCharsets.UTF_8))) {
+            error.printStackTrace(writer);
+        }
+    }
+
+    /**
+     * @return failed documents with their error
+     */
+    public List<String> getDocuments() {
+        synchronized (documents) {
+            return new ArrayList<>(documents);
+        }
+    }
+
+    public int getCount() {
+        return documents.size();
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright (c) 2025 NOMANA-IT and/or its affiliates.
+ * All rights reserved. Use is subject to license terms.
+ *
+ * @author fblettner
+ */
+package custom.ubl;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Append-only journal of a burst run
+ * One line "doc|dct|kco|stage" is written each time a document reaches a
+ * checkpoint. When a run is resumed, the journal of the failed run is read
+ * back: finished documents are skipped and partly processed documents do
+ * not repeat the database inserts already made, nor the PA upload once it
+ * succeeded. Quarantined documents are
+ * processed again from the last stage they reached. A line cut by a crash
+ * is ignored.
+ */
+public class RunJournal implements Closeable {
+
+    // F564230 inséré
+    public static final String STAGE_EXTRACTED = "EXTRACTED";
+    // Tables UBL alimentées
+    public static final String STAGE_PERSISTED = "PERSISTED";
+    // Document déposé sur la PA : jamais renvoyé à la reprise
+    public static final String STAGE_SENT = "SENT";
+    // Toutes les étapes terminées
+    public static final String STAGE_DONE = "DONE";
+    // Document en erreur, repris à la prochaine exécution
+    public static final String STAGE_QUARANTINED = "QUARANTINED";
+
+    private static final String SEPARATOR = "|";
+
+    private final Map<String, String> stages = new ConcurrentHashMap<>();
+    private final Writer writer;
+
+    /**
+     * Opens the journal of a run
+     *
+     * @param file   Journal file
+     * @param resume true to keep the entries of the previous run, false to
+     *               start an empty journal
+     */
+    public RunJournal(File file, boolean resume) throws IOException {
+        if (resume && file.exists()) {
+            load(file);
+        }
+        file.getParentFile().mkdirs();
+        boolean cutLine = resume && endsWithCutLine(file);
+        this.writer = new BufferedWriter(new OutputStreamWriter(
+                new FileOutputStream(file, resume), StandardCharsets.UTF_8));
+        if (cutLine) {
+            writer.write("\n");
+        }
+    }
+
+    /* Dernière ligne interrompue par l'arrêt de la JVM */
+    private static boolean endsWithCutLine(File file) throws IOException {
+        if (!file.exists() || file.length() == 0) {
+            return false;
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            raf.seek(raf.length() - 1);
+            return raf.read() != '\n';
+        }
+    }
+
+    private void load(File file) throws IOException {
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new FileInputStream(file), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split("\\|", -1);
+                if (fields.length == 4 && !fields[3].isEmpty()
+                        && !STAGE_QUARANTINED.equals(fields[3])) {
+                    stages.put(key(fields[0], fields[1], fields[2]), fields[3]);
+                }
+            }
+        }
+    }
+
+    private static String key(String doc, String dct, String kco) {
+        return doc + SEPARATOR + dct + SEPARATOR + kco;
+    }
+
+    /**
+     * @return last stage reached by the document, null if not yet processed
+     */
+    public String getStage(String doc, String dct, String kco) {
+        return stages.get(key(doc, dct, kco));
+    }
+
+    /**
+     * Writes a checkpoint, flushed at once so it survives a crash of the JVM
+     */
+    public synchronized void record(String doc, String dct, String kco, String stage) throws IOException {
+        String key = key(doc, dct, kco);
+        if (!STAGE_QUARANTINED.equals(stage)) {
+            stages.put(key, stage);
+        }
+        writer.write(key + SEPARATOR + stage + "\n");
+        writer.flush();
+    }
+
+    /**
+     * @return true if documents of a previous run are in the journal
+     */
+    public boolean hasEntries() {
+        return !stages.isEmpty();
+    }
+
+    /**
+     * @return number of documents marked as finished
+     */
+    public int getDoneCount() {
+        return (int) stages.values().stream().filter(STAGE_DONE::equals).count();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        writer.close();
+    }
+}
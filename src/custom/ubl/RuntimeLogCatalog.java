@@ -13,6 +13,7 @@ public class RuntimeLogCatalog {
     public static final String STATUS_SUCCESSFUL = "SUCCESSFUL";
     public static final String STATUS_FATAL_ERROR = "FATAL ERROR";
     public static final String STATUS_NO_DATA = "NO DATA SELECTED";
+    public static final String STATUS_COMPLETED_WITH_ERRORS = "COMPLETED WITH ERRORS";
     
     // ========== METHOD NAMES (for tracking where errors occur) ==========
     public static final String METHOD_START = "START";
@@ -20,12 +21,20 @@ public class RuntimeLogCatalog {
     public static final String METHOD_INIT = "Init";
     public static final String METHOD_TRANSFORM_XSL = "transformXSLToXML";
     public static final String METHOD_CONVERT_RTF = "convertRTFXSL";
+    public static final String METHOD_BURST_PDF = "burstToPDF";
+    public static final String METHOD_RENDER = "render";
     public static final String METHOD_RUN_SINGLE = "runSingle";
     public static final String METHOD_RUN_TASKS = "runTasks";
     public static final String METHOD_PARSE_XML = "parseXML";
     public static final String METHOD_COPY_FILES = "copyFiles";
     public static final String METHOD_DELETE_FILES = "deleteFiles";
     public static final String METHOD_PA_AUTH = "paAuthentication";
+    public static final String METHOD_PIPELINE = "pipeline";
+    public static final String METHOD_CONCURRENCY = "concurrency";
+    public static final String METHOD_MEMORY = "memory";
+    public static final String METHOD_SHARD = "shard";
+    public static final String METHOD_RESUME = "resume";
+    public static final String METHOD_QUARANTINE = "quarantine";
     
     /**
      * Private constructor to prevent instantiation
@@ -0,0 +1,510 @@
+/*
+ * Copyright (c) 2025 NOMANA-IT and/or its affiliates.
+ * All rights reserved. Use is subject to license terms.
+ *
+ * @author fblettner
+ */
+package custom.ubl;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import custom.resources.FragmentSource;
+import custom.resources.MappedSpoolSplitter;
+import custom.resources.SpoolSplitter;
+
+/**
+ * Shared directory through which several NomaUBL processes split one spool
+ *
+ * The node that has the spool file cuts it into shards of shardSize burst
+ * fragments (shard-NNNNN.shard) while the other nodes already process the
+ * first shards. A node claims a shard by creating its lease file; the file
+ * is touched by a heartbeat thread, and a lease not touched for
+ * leaseTimeout is taken over by another node, which resumes the shard from
+ * its journal (shard-NNNNN.journal, kept in the shared directory). A
+ * finished shard gets a .done marker, a shard with quarantined documents a
+ * .failed marker. Indexing uses the same lease, so a node holding the spool
+ * takes over the indexing of a node that stopped.
+ *
+ * Only atomic file creation and rename are needed: a shared file system
+ * (NFS, SMB) or several processes on the same server both work. The clocks
+ * of the nodes must be synchronized, lease expiry compares file dates.
+ */
+public class ShardDirectory implements Closeable {
+
+    private static final String INDEX_LEASE = "index.lease";
+    private static final String INDEX_DONE = "index.done";
+    private static final String ASSEMBLED = "assembled";
+    private static final String SPOOL_ID = "spool.id";
+    private static final String OUTPUT = "output";
+
+    private final File root;
+    private final String nodeId;
+    private final long leaseTimeout;
+    private final long pollInterval;
+    private final Set<File> heldLeases = ConcurrentHashMap.newKeySet();
+    // Baux repris par un autre noeud pendant leur traitement ici
+    private final Set<File> lostLeases = ConcurrentHashMap.newKeySet();
+    private final ScheduledExecutorService heartbeat;
+    private String spoolXML;
+    private String burstKey;
+    private int shardSize;
+    private boolean mappedSpool;
+    private Thread indexer;
+    private volatile Exception indexError;
+
+    /**
+     * Opens the shared directory of a spool file
+     *
+     * @param root         Directory of the spool, created if needed
+     * @param nodeId       Name of this node, written in its lease files
+     * @param leaseTimeout Milliseconds after which a lease not renewed is
+     *                     taken over
+     */
+    public ShardDirectory(File root, String nodeId, long leaseTimeout) throws IOException {
+        this.root = root;
+        this.nodeId = nodeId;
+        this.leaseTimeout = leaseTimeout;
+        this.pollInterval = Math.max(100, Math.min(1000, leaseTimeout / 3));
+        Files.createDirectories(new File(root, OUTPUT).toPath());
+
+        // Les baux de ce noeud sont renouvelés trois fois par délai d'expiration
+        heartbeat = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "shard-heartbeat");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long period = Math.max(1, leaseTimeout / 3);
+        heartbeat.scheduleAtFixedRate(this::renewLeases, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Makes this node able to index the spool, when it holds the spool file
+     *
+     * The directory is emptied when it belongs to an earlier spool of the
+     * same name (size and date recorded in spool.id), so a new spool is
+     * never taken for one already processed.
+     *
+     * @param spoolXML  Path to the spool file
+     * @param burstKey  Tag name of the burst element
+     * @param shardSize Burst fragments per shard
+     */
+    public void setSpool(String spoolXML, String burstKey, int shardSize, boolean mapped) throws IOException {
+        this.spoolXML = spoolXML;
+        this.burstKey = burstKey;
+        this.shardSize = Math.max(1, shardSize);
+        this.mappedSpool = mapped;
+
+        File spool = new File(spoolXML);
+        String identity = spool.length() + "-" + spool.lastModified();
+        File recorded = new File(root, SPOOL_ID);
+        String previous = recorded.exists()
+                ? new String(Files.readAllBytes(recorded.toPath()), StandardCharsets.UTF_8).trim()
+                : null;
+        // Sans spool.id, seul un répertoire déjà publié est à l'évidence périmé
+        if (previous == null ? new File(root, ASSEMBLED).exists() : !previous.equals(identity)) {
+            LogCatalog.shardDirectoryReset(root.getPath()).print(true);
+            purge();
+        }
+        if (!identity.equals(previous)) {
+            writeAtomically(recorded, identity.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    /**
+     * Makes the failed shards of a previous run available again (-resume)
+     */
+    public void reopenFailed() throws IOException {
+        File[] failed = root.listFiles((dir, name) -> name.endsWith(".failed"));
+        if (failed != null) {
+            for (File file : failed) {
+                Files.deleteIfExists(file.toPath());
+            }
+        }
+        Files.deleteIfExists(new File(root, ASSEMBLED).toPath());
+    }
+
+    /**
+     * Takes the next free shard, waiting while the other shards are leased or
+     * not yet indexed
+     *
+     * @return leased shard, null when every shard is finished
+     */
+    public Lease claim() throws IOException, InterruptedException {
+        long waitStart = System.currentTimeMillis();
+        while (true) {
+            // Sorties déjà publiées par un autre noeud
+            if (new File(root, ASSEMBLED).exists()) {
+                return null;
+            }
+            if (indexError != null) {
+                throw new IOException("Shard indexing : " + indexError.getMessage(), indexError);
+            }
+            int total = getShardCount();
+            int finished = 0;
+            for (int number = 0; shardFile(number).exists(); number++) {
+                if (marker(number, ".done").exists() || marker(number, ".failed").exists()) {
+                    finished++;
+                } else if (tryLease(marker(number, ".lease"))) {
+                    // Lot terminé par son propriétaire entre le contrôle et la création du bail
+                    if (marker(number, ".done").exists() || marker(number, ".failed").exists()) {
+                        releaseLease(marker(number, ".lease"));
+                        finished++;
+                        continue;
+                    }
+                    return new Lease(number);
+                }
+            }
+            if (total >= 0 && finished >= total) {
+                return null;
+            }
+            if (total < 0) {
+                if (spoolXML != null && (indexer == null || !indexer.isAlive())
+                        && tryLease(new File(root, INDEX_LEASE))) {
+                    startIndexer();
+                } else if (spoolXML == null && !new File(root, INDEX_LEASE).exists()
+                        && System.currentTimeMillis() - waitStart > leaseTimeout) {
+                    throw new IOException("No shard index in " + root + " and no spool file on this node");
+                }
+            }
+            Thread.sleep(pollInterval);
+        }
+    }
+
+    /**
+     * Elects the node that publishes the output, once every shard is finished
+     *
+     * @return true for one node only
+     */
+    public boolean claimAssembly() throws IOException {
+        try {
+            Files.createFile(new File(root, ASSEMBLED).toPath());
+            return true;
+        } catch (FileAlreadyExistsException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Removes the shards, journals and output once published. The index and
+     * assembly markers stay, so a node started late does not index the
+     * spool again; setSpool() empties them for a new spool of the same name.
+     */
+    public void cleanUp() throws IOException {
+        File[] files = root.listFiles((dir, name) -> name.startsWith("shard-"));
+        if (files != null) {
+            for (File file : files) {
+                Files.deleteIfExists(file.toPath());
+            }
+        }
+        File[] outputs = getOutputDir().listFiles();
+        if (outputs != null) {
+            for (File file : outputs) {
+                Files.deleteIfExists(file.toPath());
+            }
+        }
+    }
+
+    /* Lots, baux, marqueurs et sorties d'un spool précédent */
+    private void purge() throws IOException {
+        cleanUp();
+        File[] files = root.listFiles(File::isFile);
+        if (files != null) {
+            for (File file : files) {
+                Files.deleteIfExists(file.toPath());
+            }
+        }
+    }
+
+    /**
+     * @return true if a shard of the spool has quarantined documents
+     */
+    public boolean hasFailedShards() {
+        String[] failed = root.list((dir, name) -> name.endsWith(".failed"));
+        return failed != null && failed.length > 0;
+    }
+
+    /**
+     * @return directory where each node copies the output of its shards
+     */
+    public File getOutputDir() {
+        return new File(root, OUTPUT);
+    }
+
+    public File getRoot() {
+        return root;
+    }
+
+    /**
+     * @return number of shards of the spool, -1 while it is being indexed
+     */
+    public int getShardCount() throws IOException {
+        File done = new File(root, INDEX_DONE);
+        if (!done.exists()) {
+            return -1;
+        }
+        return Integer.parseInt(new String(Files.readAllBytes(done.toPath()), StandardCharsets.UTF_8).trim());
+    }
+
+    @Override
+    public void close() throws IOException {
+        heartbeat.shutdownNow();
+        if (indexer != null) {
+            indexer.interrupt();
+        }
+    }
+
+    private File shardFile(int number) {
+        return new File(root, String.format("shard-%05d.shard", number));
+    }
+
+    private File marker(int number, String suffix) {
+        return new File(root, String.format("shard-%05d", number) + suffix);
+    }
+
+    /* Création atomique du bail, ou reprise d'un bail expiré */
+    private boolean tryLease(File lease) throws IOException {
+        if (createLease(lease)) {
+            return true;
+        }
+        if (!expired(lease)) {
+            return false;
+        }
+        // Un seul noeud réussit à renommer le bail expiré
+        File stale = new File(lease.getPath() + "." + nodeId + ".stale");
+        try {
+            Files.move(lease.toPath(), stale.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        } catch (NoSuchFileException e) {
+            return false;
+        }
+        if (!expired(stale)) {
+            // Renouvelé entre-temps par son propriétaire
+            try {
+                Files.move(stale.toPath(), lease.toPath());
+            } catch (IOException e) {
+                Files.deleteIfExists(stale.toPath());
+            }
+            return false;
+        }
+        String owner = new String(Files.readAllBytes(stale.toPath()), StandardCharsets.UTF_8);
+        Files.deleteIfExists(stale.toPath());
+        LogCatalog.shardLeaseExpired(lease.getName(), owner).print(true);
+        return createLease(lease);
+    }
+
+    private boolean createLease(File lease) throws IOException {
+        try {
+            Files.write(lease.toPath(), nodeId.getBytes(StandardCharsets.UTF_8), StandardOpenOption.CREATE_NEW,
+                    StandardOpenOption.WRITE);
+        } catch (FileAlreadyExistsException e) {
+            return false;
+        }
+        lostLeases.remove(lease);
+        heldLeases.add(lease);
+        return true;
+    }
+
+    private boolean expired(File lease) {
+        long lastModified = lease.lastModified();
+        return lastModified > 0 && System.currentTimeMillis() - lastModified > leaseTimeout;
+    }
+
+    /*
+     * Renouvellement des baux de ce noeud. Un bail supprimé ou réécrit par un
+     * autre noeud est perdu : son lot n'est plus traité ici.
+     */
+    private void renewLeases() {
+        FileTime now = FileTime.fromMillis(System.currentTimeMillis());
+        for (File lease : heldLeases) {
+            try {
+                String owner = new String(Files.readAllBytes(lease.toPath()), StandardCharsets.UTF_8);
+                if (!owner.equals(nodeId)) {
+                    throw new IOException("Lease " + lease.getName() + " taken over by " + owner);
+                }
+                Files.setLastModifiedTime(lease.toPath(), now);
+            } catch (IOException e) {
+                if (heldLeases.remove(lease)) {
+                    lostLeases.add(lease);
+                    LogCatalog.shardLeaseLost(lease.getName(), nodeId).print(true);
+                }
+            }
+        }
+    }
+
+    private void releaseLease(File lease) throws IOException {
+        heldLeases.remove(lease);
+        if (!lostLeases.remove(lease)) {
+            Files.deleteIfExists(lease.toPath());
+        }
+    }
+
+    /*
+     * Découpage du spool en lots sur un thread dédié : les lots sont traités
+     * dès leur écriture. Les lots déjà écrits par un noeud arrêté pendant le
+     * découpage sont conservés, le découpage est identique.
+     */
+    private void startIndexer() {
+        indexer = new Thread(() -> {
+            File lease = new File(root, INDEX_LEASE);
+            try (FragmentSource splitter = mappedSpool ? MappedSpoolSplitter.open(spoolXML, burstKey)
+                    : new SpoolSplitter(spoolXML, burstKey)) {
+                List<ByteBuffer> fragments = new ArrayList<>(shardSize);
+                int number = 0;
+                int count = 0;
+                ByteBuffer fragment;
+                while ((fragment = splitter.next()) != null) {
+                    count++;
+                    fragments.add(fragment);
+                    if (fragments.size() == shardSize) {
+                        writeShard(number++, fragments);
+                        fragments.clear();
+                    }
+                }
+                if (!fragments.isEmpty()) {
+                    writeShard(number++, fragments);
+                }
+                writeAtomically(new File(root, INDEX_DONE), String.valueOf(number).getBytes(StandardCharsets.UTF_8));
+                LogCatalog.shardIndexed(number, count, root.getPath()).print(true);
+            } catch (Exception e) {
+                indexError = e;
+            } finally {
+                try {
+                    releaseLease(lease);
+                } catch (IOException e) {
+                    // Le bail expirera
+                }
+            }
+        }, "shard-indexer");
+        indexer.setDaemon(true);
+        indexer.start();
+    }
+
+    /* Lot : suite de fragments précédés de leur longueur */
+    private void writeShard(int number, List<ByteBuffer> fragments) throws IOException {
+        File shard = shardFile(number);
+        if (shard.exists()) {
+            return;
+        }
+        File tmp = new File(shard.getPath() + "." + nodeId + ".tmp");
+        try (FileChannel out = FileChannel.open(tmp.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer length = ByteBuffer.allocate(4);
+            for (ByteBuffer fragment : fragments) {
+                length.clear();
+                length.putInt(fragment.remaining()).flip();
+                writeFully(out, length);
+                writeFully(out, fragment.duplicate());
+            }
+        }
+        Files.move(tmp.toPath(), shard.toPath(), StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static void writeFully(FileChannel out, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+    }
+
+    private void writeAtomically(File file, byte[] content) throws IOException {
+        File tmp = new File(file.getPath() + "." + nodeId + ".tmp");
+        Files.write(tmp.toPath(), content);
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Shard leased by this node
+     */
+    public class Lease {
+        private final int number;
+
+        private Lease(int number) {
+            this.number = number;
+        }
+
+        public int getNumber() {
+            return number;
+        }
+
+        /**
+         * @return true if another node took the lease over: the shard must
+         *         not be completed by this node
+         */
+        public boolean isLost() {
+            return lostLeases.contains(marker(number, ".lease"));
+        }
+
+        /**
+         * @return journal of the shard, read back when the shard is taken over
+         */
+        public File getJournalFile() {
+            return marker(number, ".journal");
+        }
+
+        /**
+         * @return burst fragments of the shard, as slices of the mapped shard
+         *         file
+         */
+        public FragmentSource open() throws IOException {
+            ByteBuffer shard;
+            try (FileChannel in = FileChannel.open(shardFile(number).toPath(), StandardOpenOption.READ)) {
+                shard = in.map(FileChannel.MapMode.READ_ONLY, 0, in.size());
+            }
+            return new FragmentSource() {
+                @Override
+                public ByteBuffer next() throws IOException {
+                    // Bail perdu : plus aucun document du lot n'est traité ici
+                    if (isLost() || shard.remaining() < 4) {
+                        return null;
+                    }
+                    int length = shard.getInt();
+                    if (length > shard.remaining()) {
+                        throw new EOFException("Truncated shard " + shardFile(number));
+                    }
+                    ByteBuffer fragment = shard.slice(shard.position(), length);
+                    shard.position(shard.position() + length);
+                    return fragment;
+                }
+
+                @Override
+                public void close() {
+                    // Projection libérée avec les derniers fragments
+                }
+            };
+        }
+
+        /**
+         * Marks the shard as finished
+         *
+         * @param failed true if documents of the shard are in quarantine, the
+         *               shard is then processed again by -resume
+         */
+        public void complete(boolean failed) throws IOException {
+            if (isLost()) {
+                throw new IOException("Lease of shard " + number + " lost, shard not completed");
+            }
+            Files.write(marker(number, failed ? ".failed" : ".done").toPath(), nodeId.getBytes(StandardCharsets.UTF_8));
+            releaseLease(marker(number, ".lease"));
+        }
+
+        /**
+         * Gives the shard back unfinished, another node takes it over
+         */
+        public void release() throws IOException {
+            releaseLease(marker(number, ".lease"));
+        }
+    }
+}
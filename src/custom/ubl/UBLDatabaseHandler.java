@@ -181,6 +181,13 @@ public class UBLDatabaseHandler {
         
         byte[] byteData = xmlString.getBytes("UTF-8");
 
+        return convertBytesToBlob(byteData);
+    }
+
+    /**
+     * Convert serialized XML to BLOB
+     */
+    private Blob convertBytesToBlob(byte[] byteData) throws SQLException {
         Blob blobData = conn.createBlob();
         blobData.setBytes(1, byteData);
         return blobData;
@@ -193,6 +200,20 @@ public class UBLDatabaseHandler {
     public boolean insertUBLHeader(Document ublDoc, String originalDoc, 
                                    String originalDct, String originalKco, String customerAN8, String customerALKY, String status, String statusMessage) 
                                    throws Exception {
+        return insertUBLHeader(ublDoc, null, originalDoc, originalDct, originalKco, customerAN8, customerALKY,
+                status, statusMessage);
+    }
+
+    /**
+     * Insert UBL Header into F564231, with the UBL stored as serialized
+     * Corresponds to Invoice header according to EN 16931
+     *
+     * @param ublContent UTF-8 content of the UBL document stored in TXFT, the
+     *                   document itself is serialized when null
+     */
+    public boolean insertUBLHeader(Document ublDoc, byte[] ublContent, String originalDoc,
+                                   String originalDct, String originalKco, String customerAN8, String customerALKY, String status, String statusMessage) 
+                                   throws Exception {
         
         String sql = "INSERT INTO " + schema + ".F564231 (" +
                 "UHDOC, UHDCT, UHKCO, UHODOC, UHODCT, UHOKCO, UHK74FLEN, UHK74XMLV, UHK74LDDJ, UHDDJ, UHK74LEDT, " +
@@ -269,7 +290,8 @@ public class UBLDatabaseHandler {
             setStringOrBlank(stmt, 21, customerALKY);                                      // ALKY
             
             // Store complete UBL XML
-            stmt.setBlob(22, convertNodeToBlob(ublDoc));                               // TXFT
+            stmt.setBlob(22, ublContent != null ? convertBytesToBlob(ublContent)
+                    : convertNodeToBlob(ublDoc));                                          // TXFT
             
             // Status
             setStringOrBlank(stmt, 23, status);                                      // K74INVST
@@ -672,6 +694,35 @@ public class UBLDatabaseHandler {
      */
     public boolean insertDocumentLog(String activite, String typePiece, Element element, String numClientTag, String montantTag, String datePieceTag,
             String dateEcheanceTag, String codeRoutageTag, String fileName, String tableLog) {
+        return writeDocumentLog(activite, typePiece, element, getNodeString(numClientTag, element),
+                getNodeString(montantTag, element), getNodeString(datePieceTag, element),
+                getNodeString(dateEcheanceTag, element), getNodeString(codeRoutageTag, element),
+                fileName, tableLog);
+    }
+
+    /**
+     * Insert document log entry (F564230) with the fields already read from
+     * the document
+     *
+     * @param activite Activity code (mandatory - FEAA10)
+     * @param typePiece Document type (mandatory - FEAA20)
+     * @param element XML element containing document data
+     * @param fields Fields read by the FieldExtractor of the template
+     * @param fileName Source file name
+     * @param tableLog Log table name
+     * @return true if successful
+     */
+    public boolean insertDocumentLog(String activite, String typePiece, Element element,
+            FieldExtractor.Fields fields, String fileName, String tableLog) {
+        return writeDocumentLog(activite, typePiece, element, fields.get(FieldExtractor.NUM_CLIENT),
+                fields.get(FieldExtractor.MONTANT), fields.get(FieldExtractor.DATE_PIECE),
+                fields.get(FieldExtractor.DATE_ECHEANCE), fields.get(FieldExtractor.CODE_ROUTAGE),
+                fileName, tableLog);
+    }
+
+    private boolean writeDocumentLog(String activite, String typePiece, Element element, String numClient,
+            String montant, String datePiece, String dateEcheance, String codeRoutage, String fileName,
+            String tableLog) {
         
         try {
             // Validate mandatory fields
@@ -690,12 +741,7 @@ public class UBLDatabaseHandler {
             if (typePiece == null || typePiece.trim().isEmpty()) {
                 throw new IllegalArgumentException("FEAA20 (typePiece) is mandatory");
             }
-            
-            String numClient = getNodeString(numClientTag, element);
-            String montant = getNodeString(montantTag, element);
-            String datePiece = getNodeString(datePieceTag, element);
-            String dateEcheance = getNodeString(dateEcheanceTag, element);
-            String codeRoutage = getNodeString(codeRoutageTag, element);
+
 
             String sql = "INSERT INTO " + schema + "." + tableLog
                     + " (FEDOC, FEDCT, FEKCO, FEAA10, FEAA20, FEALKY, FEAEXP, FEIVD, FEARDU, FEUPMJ, FEPID, FEVERS, FEUSER, FEJOBN, FEUPMT, FEWDS1, FEEV01, FETXFT) VALUES (?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?)";
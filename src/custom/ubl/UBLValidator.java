@@ -11,8 +11,11 @@ import org.w3c.dom.*;
 import javax.xml.parsers.*;
 
 import net.sf.saxon.TransformerFactoryImpl;
+import custom.resources.StylesheetCache;
 
 import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.*;
 
 /**
@@ -101,11 +104,12 @@ public class UBLValidator {
         }
 
         try {
-            TransformerFactory tf = new TransformerFactoryImpl();
-            Transformer transformer = tf.newTransformer(new StreamSource(xsl));
-
+            // Schematron compilé une seule fois, transformer pris dans le pool
             ByteArrayOutputStream svrlOut = new ByteArrayOutputStream();
-            transformer.transform(new DOMSource(ublDocument), new StreamResult(svrlOut));
+            try (StylesheetCache.Pooled transformer = StylesheetCache.acquire(StylesheetCache.Engine.SAXON,
+                    xsl.getPath())) {
+                transformer.get().transform(new DOMSource(ublDocument), new StreamResult(svrlOut));
+            }
 
             Document svrlDoc = DocumentBuilderFactory
                     .newInstance()
@@ -148,23 +152,50 @@ public class UBLValidator {
     // =========================
     // Compile .sch → .xsl (ISO)
     // =========================
+    /*
+     * Schematron compilé dans un fichier stable, partagé par tous les
+     * validateurs : une seule entrée dans le cache des feuilles, et pas de
+     * nouvelle compilation tant que le .sch et les feuilles ISO sont plus
+     * anciens que le fichier.
+     */
     private File compileSchematron(File schFile, String schematronPath) throws Exception {
+        File[] sources = { schFile, new File(schematronPath + "/iso_dsdl_include.xsl"),
+                new File(schematronPath + "/iso_abstract_expand.xsl"),
+                new File(schematronPath + "/iso_svrl_for_xslt2.xsl") };
+        File dir = new File(System.getProperty("java.io.tmpdir"), "nomaubl-schematron");
+        File xslFile = new File(dir, schFile.getName() + "-"
+                + Integer.toHexString(schFile.getAbsolutePath().hashCode()) + ".xsl");
+        long newest = 0;
+        for (File source : sources) {
+            newest = Math.max(newest, source.lastModified());
+        }
+        if (xslFile.isFile() && xslFile.lastModified() >= newest) {
+            return xslFile;
+        }
 
         TransformerFactory tf = new TransformerFactoryImpl();
 
         ByteArrayOutputStream step1 = new ByteArrayOutputStream();
-        tf.newTransformer(new StreamSource(new File(schematronPath + "/iso_dsdl_include.xsl")))
+        tf.newTransformer(new StreamSource(sources[1]))
                 .transform(new StreamSource(schFile), new StreamResult(step1));
 
         ByteArrayOutputStream step2 = new ByteArrayOutputStream();
-        tf.newTransformer(new StreamSource(new File(schematronPath + "/iso_abstract_expand.xsl"))).transform(
+        tf.newTransformer(new StreamSource(sources[2])).transform(
                 new StreamSource(new ByteArrayInputStream(step1.toByteArray())),
                 new StreamResult(step2));
 
-        File xslFile = File.createTempFile("schematron-", ".xsl");
-        tf.newTransformer(new StreamSource(new File(schematronPath + "/iso_svrl_for_xslt2.xsl"))).transform(
-                new StreamSource(new ByteArrayInputStream(step2.toByteArray())),
-                new StreamResult(xslFile));
+        // Fichier temporaire puis renommage : un autre validateur peut le lire en même temps
+        dir.mkdirs();
+        File tmp = File.createTempFile(xslFile.getName(), ".tmp", dir);
+        try {
+            tf.newTransformer(new StreamSource(sources[3])).transform(
+                    new StreamSource(new ByteArrayInputStream(step2.toByteArray())),
+                    new StreamResult(tmp));
+            Files.move(tmp.toPath(), xslFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            tmp.delete();
+        }
 
         return xslFile;
     }
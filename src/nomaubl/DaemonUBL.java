@@ -0,0 +1,234 @@
+/*
+ * Copyright (c) 2025 NOMANA-IT and/or its affiliates.
+ * All rights reserved. Use is subject to license terms.
+ *
+ * @author fblettner
+ */
+package nomaubl;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.simpleframework.xml.Serializer;
+import org.simpleframework.xml.core.Persister;
+import custom.resources.Resource;
+import custom.resources.Resources;
+import custom.resources.Template;
+import custom.ubl.LogCatalog;
+import custom.ubl.ProcessingType;
+
+/**
+ * Resident processing mode (-daemon)
+ * Watches the input directory (dirInput) of each template and processes every
+ * new spool file inside the running JVM. Class loading, compiled schematrons
+ * and the PA token are kept warm between files instead of being paid by each
+ * JDE job.
+ *
+ * A file is picked up once its size and date are unchanged between two polls,
+ * so a spool still being copied is never read. A file that fails stays in the
+ * input directory and is retried only when it is replaced. Spools compressed
+ * with gzip (.xml.gz) are read without being decompressed on disk.
+ *
+ * Up to daemonParallelJobs files are processed at the same time, each by
+ * its own job on a shared ProcessingEngine. A template can be given with its
+ * own type (invoice:SINGLE): SINGLE files are then run by separate jobs and
+ * take their slots in the interactive lane, so a reprint never waits for a
+ * large burst spool of another template.
+ */
+public class DaemonUBL {
+
+    private static final String JOB_NUMBER = "DAEMON";
+    private static final long DEFAULT_POLL_INTERVAL = 2000;
+
+    private final String configFile;
+    private final ProcessingType paramType;
+    private final List<String> templates;
+    private final Map<String, File> inputDirs = new LinkedHashMap<>();
+    private final Map<File, String> candidates = new HashMap<>();
+    private final Map<File, String> failedFiles = new ConcurrentHashMap<>();
+    private final Set<File> runningFiles = ConcurrentHashMap.newKeySet();
+    private final Map<String, ProcessingType> templateTypes = new HashMap<>();
+    private ProcessingEngine engine;
+    private final Object lock = new Object();
+    private long pollInterval = DEFAULT_POLL_INTERVAL;
+    private int parallelJobs = 1;
+    private volatile boolean running = true;
+
+    /**
+     * Constructor for DaemonUBL
+     *
+     * @param configFile Path to configuration file
+     * @param paramType  Processing type applied to incoming files
+     * @param templates  Templates to watch, all templates when empty, with an
+     *                   optional type (template:TYPE) replacing paramType
+     */
+    public DaemonUBL(String configFile, ProcessingType paramType, List<String> templates) {
+        this.configFile = configFile;
+        this.paramType = paramType;
+        this.templates = new ArrayList<>(templates);
+    }
+
+    /* Résolution des répertoires d'entrée de chaque template */
+    private void Init() throws Exception {
+        File file = new File(configFile);
+        Serializer serializer = new Persister();
+        Resource global = serializer.read(Resources.class, file).getResourceByName("global");
+
+        pollInterval = Long.parseLong(global.getProperty("daemonPollInterval", String.valueOf(DEFAULT_POLL_INTERVAL)));
+        parallelJobs = Math.max(1, Integer.parseInt(global.getProperty("daemonParallelJobs", "1")));
+
+        // Places partagées entre les travaux, dont une partie réservée aux travaux SINGLE
+        if (parallelJobs > 1) {
+            int slots = Integer.parseInt(global.getProperty("workerSlots",
+                    String.valueOf(Runtime.getRuntime().availableProcessors())));
+            int interactiveSlots = Integer.parseInt(global.getProperty("interactiveSlots",
+                    String.valueOf(Math.max(1, slots / 4))));
+            engine = new ProcessingEngine(slots, interactiveSlots);
+        } else {
+            engine = new ProcessingEngine();
+        }
+
+        if (templates.isEmpty()) {
+            for (Resource resource : serializer.read(Template.class, file).getAllTemplates()) {
+                if (!"global".equals(resource.getName())) {
+                    templates.add(resource.getName());
+                }
+            }
+        }
+
+        for (String entry : templates) {
+            String template = entry;
+            ProcessingType type = paramType;
+            int separator = entry.lastIndexOf(':');
+            if (separator > 0) {
+                template = entry.substring(0, separator);
+                type = ProcessingType.fromString(entry.substring(separator + 1));
+            }
+            templateTypes.put(template, type);
+            String dirInput = global.getProperty("dirInput")
+                    .replace("%APP_HOME%", global.getProperty("appHome"))
+                    .replace("%PROCESS_HOME%", global.getProperty("processHome"))
+                    .replace("%TEMPLATE%", template);
+            File inputDir = new File(dirInput);
+            inputDir.mkdirs();
+            inputDirs.put(template, inputDir);
+        }
+    }
+
+    /**
+     * Runs until the JVM is stopped (SIGTERM / Ctrl+C).
+     * The files being processed when the stop is requested are completed
+     * first, files waiting for a free job are left in the input directory.
+     */
+    public void run() throws Exception {
+        Init();
+
+        Thread mainThread = Thread.currentThread();
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            running = false;
+            synchronized (lock) {
+                lock.notifyAll();
+            }
+            try {
+                mainThread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }));
+
+        LogCatalog.daemonStarted(paramType.getValue(), inputDirs.values().toString()).print(true);
+
+        // Les fichiers SINGLE n'attendent pas derrière les spools en cours
+        ExecutorService jobs = Executors.newFixedThreadPool(parallelJobs);
+        ExecutorService interactiveJobs = Executors.newFixedThreadPool(parallelJobs);
+        try {
+            while (running) {
+                for (Map.Entry<String, File> entry : inputDirs.entrySet()) {
+                    ProcessingType type = templateTypes.get(entry.getKey());
+                    scan(type == ProcessingType.SINGLE ? interactiveJobs : jobs, entry.getKey(), type,
+                            entry.getValue());
+                }
+                synchronized (lock) {
+                    if (running) {
+                        lock.wait(pollInterval);
+                    }
+                }
+            }
+        } finally {
+            jobs.shutdown();
+            interactiveJobs.shutdown();
+            jobs.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+            interactiveJobs.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        }
+
+        LogCatalog.daemonStopped().print(true);
+    }
+
+    /* Recherche des fichiers stables dans un répertoire d'entrée */
+    private void scan(ExecutorService jobs, String template, ProcessingType type, File inputDir) {
+        candidates.keySet().removeIf(f -> !f.exists());
+        failedFiles.keySet().removeIf(f -> !f.exists());
+
+        File[] files = inputDir.listFiles((dir, name) -> name.endsWith(".xml") || name.endsWith(".xml.gz"));
+        if (files == null) {
+            return;
+        }
+        Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+
+        for (File file : files) {
+            if (!running) {
+                return;
+            }
+            if (runningFiles.contains(file)) {
+                continue;
+            }
+            String signature = file.length() + ":" + file.lastModified();
+            if (signature.equals(failedFiles.get(file))) {
+                continue;
+            }
+            // Fichier vu pour la première fois ou encore en cours de copie
+            if (!signature.equals(candidates.put(file, signature))) {
+                continue;
+            }
+            candidates.remove(file);
+            runningFiles.add(file);
+            jobs.execute(() -> process(template, type, file, signature));
+        }
+    }
+
+    /* Traitement d'un fichier avec les caches du moteur */
+    private void process(String template, ProcessingType type, File file, String signature) {
+        try {
+            // Arrêt demandé : le fichier sera traité au prochain démarrage
+            if (!running) {
+                return;
+            }
+            String name = file.getName();
+            String paramFile = name.substring(0, name.lastIndexOf(".xml"));
+            // Reprise des documents déjà terminés si le fichier avait échoué
+            ProcessingResult result = engine.run(
+                    new ProcessingJob(template, paramFile, type, JOB_NUMBER, configFile, false, true));
+            if (result.isFatal()) {
+                LogCatalog.daemonFileFailed(template, file.getName(), result.getMessage()).print(true);
+            } else {
+                LogCatalog.daemonFileProcessed(template, file.getName(), result.getElapsedMs()).print(true);
+            }
+            // Le fichier est supprimé en cas de succès, sinon il n'est repris qu'après remplacement
+            if (file.exists()) {
+                failedFiles.put(file, signature);
+            }
+        } finally {
+            runningFiles.remove(file);
+        }
+    }
+}
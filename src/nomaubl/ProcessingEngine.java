@@ -0,0 +1,105 @@
+/*
+ * Copyright (c) 2025 NOMANA-IT and/or its affiliates.
+ * All rights reserved. Use is subject to license terms.
+ *
+ * @author fblettner
+ */
+package nomaubl;
+
+import java.io.File;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import custom.ubl.PriorityLanes;
+import custom.ubl.TokenManager;
+import custom.ubl.UBLValidator;
+
+/**
+ * Document processing engine
+ * Runs ProcessingJob objects and returns a ProcessingResult for each. Every
+ * run keeps its settings and state to itself, so jobs for different
+ * templates or spool files can run at the same time from several threads
+ * (resident mode, GUI). The compiled schematrons and the PA tokens are
+ * shared by all the jobs of an engine.
+ *
+ * An engine built with processing slots also schedules the documents of its
+ * jobs in two priority lanes, so a SINGLE reprint is not slowed down by a
+ * large BURST or UBL run (see PriorityLanes).
+ */
+public class ProcessingEngine {
+
+    // Caches partagés entre les jobs du moteur
+    private final Map<String, UBLValidator> validatorCache = new ConcurrentHashMap<>();
+    private final Map<String, TokenManager> tokenManagerCache = new ConcurrentHashMap<>();
+    private final PriorityLanes lanes;
+
+    /**
+     * Engine without priority lanes, each job uses its own numProc workers
+     */
+    public ProcessingEngine() {
+        this.lanes = null;
+    }
+
+    /**
+     * Engine sharing processing slots between its jobs
+     *
+     * @param slots            Documents processed at the same time by all jobs
+     * @param interactiveSlots Slots kept for interactive jobs
+     */
+    public ProcessingEngine(int slots, int interactiveSlots) {
+        this.lanes = new PriorityLanes(slots, interactiveSlots);
+    }
+
+    /**
+     * Processes a spool file
+     *
+     * @param job Spool file and options
+     * @return outcome of the run, a fatal error is returned and not thrown
+     */
+    public ProcessingResult run(ProcessingJob job) {
+        long start = System.currentTimeMillis();
+        try {
+            return new ProcessingRun(this, job).execute();
+        } catch (Exception e) {
+            return ProcessingResult.fatal(e, System.currentTimeMillis() - start);
+        }
+    }
+
+    /**
+     * @return slots shared by the jobs, null without priority lanes
+     */
+    PriorityLanes getLanes() {
+        return lanes;
+    }
+
+    /* Validateur UBL partagé : les schematrons ne sont compilés qu'une fois */
+    synchronized UBLValidator getValidator(String xsdPath, String schematronPath) throws Exception {
+        long lastModified = new File(xsdPath).lastModified();
+        File[] schematronFiles = new File(schematronPath).listFiles();
+        if (schematronFiles != null) {
+            for (File f : schematronFiles) {
+                lastModified = Math.max(lastModified, f.lastModified());
+            }
+        }
+        String key = xsdPath + "|" + schematronPath + "|" + lastModified;
+        UBLValidator validator = validatorCache.get(key);
+        if (validator == null) {
+            validator = new UBLValidator(xsdPath, schematronPath);
+            // Une version par couple xsd / schematron, les versions modifiées sont remplacées
+            validatorCache.keySet().removeIf(k -> k.startsWith(xsdPath + "|" + schematronPath + "|"));
+            validatorCache.put(key, validator);
+        }
+        return validator;
+    }
+
+    /* TokenManager partagé : le jeton PA est réutilisé tant qu'il est valide */
+    synchronized TokenManager getTokenManager(String baseUrl, String loginEndpoint, String username,
+            String password, int timeout, boolean displayError) {
+        String key = baseUrl + loginEndpoint + "|" + username;
+        TokenManager tokenManager = tokenManagerCache.get(key);
+        if (tokenManager == null) {
+            tokenManager = new TokenManager(baseUrl, loginEndpoint, username, password, timeout, displayError);
+            tokenManagerCache.put(key, tokenManager);
+        }
+        return tokenManager;
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright (c) 2025 NOMANA-IT and/or its affiliates.
+ * All rights reserved. Use is subject to license terms.
+ *
+ * @author fblettner
+ */
+package nomaubl;
+
+import custom.ubl.PriorityLanes;
+import custom.ubl.ProcessingType;
+
+/**
+ * Spool file to process with a ProcessingEngine
+ * Holds everything a run needs, so several jobs can be handed to the same
+ * engine from different threads.
+ */
+public class ProcessingJob {
+
+    private final String template;
+    private final String fileName;
+    private final ProcessingType type;
+    private final String jobNumber;
+    private final String configFile;
+    private final boolean displayError;
+    private final boolean resume;
+    private final PriorityLanes.Lane lane;
+
+    /**
+     * Constructor for ProcessingJob, SINGLE jobs in the interactive lane and
+     * the other types in the bulk lane
+     *
+     * @param template     Template name
+     * @param fileName     Input file name, without the .xml extension
+     * @param type         Processing type
+     * @param jobNumber    Job number for tracking
+     * @param configFile   Path to configuration file
+     * @param displayError Display errors on the console
+     * @param resume       Skip the documents finished by a failed burst run
+     */
+    public ProcessingJob(String template, String fileName, ProcessingType type, String jobNumber,
+            String configFile, boolean displayError, boolean resume) {
+        this(template, fileName, type, jobNumber, configFile, displayError, resume,
+                type == ProcessingType.SINGLE ? PriorityLanes.Lane.INTERACTIVE : PriorityLanes.Lane.BULK);
+    }
+
+    /**
+     * Constructor for ProcessingJob
+     *
+     * @param template     Template name
+     * @param fileName     Input file name, without the .xml extension
+     * @param type         Processing type
+     * @param jobNumber    Job number for tracking
+     * @param configFile   Path to configuration file
+     * @param displayError Display errors on the console
+     * @param resume       Skip the documents finished by a failed burst run
+     * @param lane         Priority of the job against the other jobs of the
+     *                     engine
+     */
+    public ProcessingJob(String template, String fileName, ProcessingType type, String jobNumber,
+            String configFile, boolean displayError, boolean resume, PriorityLanes.Lane lane) {
+        this.template = template;
+        this.fileName = fileName;
+        this.type = type;
+        this.jobNumber = jobNumber;
+        this.configFile = configFile;
+        this.displayError = displayError;
+        this.resume = resume;
+        this.lane = lane;
+    }
+
+    public String getTemplate() {
+        return template;
+    }
+
+    public String getFileName() {
+        return fileName;
+    }
+
+    public ProcessingType getType() {
+        return type;
+    }
+
+    public String getJobNumber() {
+        return jobNumber;
+    }
+
+    public String getConfigFile() {
+        return configFile;
+    }
+
+    public boolean isDisplayError() {
+        return displayError;
+    }
+
+    public boolean isResume() {
+        return resume;
+    }
+
+    public PriorityLanes.Lane getLane() {
+        return lane;
+    }
+}
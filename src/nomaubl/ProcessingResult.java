@@ -0,0 +1,105 @@
+/*
+ * Copyright (c) 2025 NOMANA-IT and/or its affiliates.
+ * All rights reserved. Use is subject to license terms.
+ *
+ * @author fblettner
+ */
+package nomaubl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Outcome of a ProcessingJob
+ * Replaces the errorCode / errorMessage fields shared by all the runs of
+ * the JVM: each run returns its own result.
+ */
+public class ProcessingResult {
+
+    public enum Status {
+        SUCCESSFUL(0),
+        COMPLETED_WITH_ERRORS(2),
+        FATAL_ERROR(1);
+
+        private final int exitCode;
+
+        Status(int exitCode) {
+            this.exitCode = exitCode;
+        }
+
+        public int getExitCode() {
+            return exitCode;
+        }
+    }
+
+    private final Status status;
+    private final String message;
+    private final List<String> quarantined;
+    private final Exception cause;
+    private final long elapsedMs;
+
+    private ProcessingResult(Status status, String message, List<String> quarantined, Exception cause,
+            long elapsedMs) {
+        this.status = status;
+        this.message = message;
+        this.quarantined = Collections.unmodifiableList(new ArrayList<>(quarantined));
+        this.cause = cause;
+        this.elapsedMs = elapsedMs;
+    }
+
+    public static ProcessingResult success(long elapsedMs) {
+        return new ProcessingResult(Status.SUCCESSFUL, null, Collections.emptyList(), null, elapsedMs);
+    }
+
+    public static ProcessingResult completedWithErrors(String message, List<String> quarantined, long elapsedMs) {
+        return new ProcessingResult(Status.COMPLETED_WITH_ERRORS, message, quarantined, null, elapsedMs);
+    }
+
+    public static ProcessingResult fatal(Exception cause, long elapsedMs) {
+        return new ProcessingResult(Status.FATAL_ERROR, cause.getMessage(), Collections.emptyList(), cause,
+                elapsedMs);
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    /**
+     * @return 0 when successful, 2 when documents are in quarantine, 1 on a
+     *         fatal error
+     */
+    public int getExitCode() {
+        return status.getExitCode();
+    }
+
+    public boolean isSuccess() {
+        return status == Status.SUCCESSFUL;
+    }
+
+    public boolean isFatal() {
+        return status == Status.FATAL_ERROR;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    /**
+     * @return quarantined documents with their error
+     */
+    public List<String> getQuarantined() {
+        return quarantined;
+    }
+
+    /**
+     * @return exception that stopped the run, null unless fatal
+     */
+    public Exception getCause() {
+        return cause;
+    }
+
+    public long getElapsedMs() {
+        return elapsedMs;
+    }
+}
@@ -0,0 +1,824 @@
+/*
+ * Copyright (c) 2025 NOMANA-IT and/or its affiliates.
+ * All rights reserved. Use is subject to license terms.
+ *
+ * @author fblettner
+ */
+package nomaubl;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.CompletionService;
+import javax.xml.stream.XMLStreamException;
+
+import org.simpleframework.xml.Serializer;
+import org.simpleframework.xml.core.Persister;
+import custom.resources.*;
+import custom.resources.BIPublisher.BIPTransformResult;
+import custom.resources.Tranform.TransformResult;
+import custom.ubl.ConcurrencyController;
+import custom.ubl.CustomUBL;
+import custom.ubl.InvoicePipeline;
+import custom.ubl.InvoiceQueue;
+import custom.ubl.LogCatalog;
+import custom.ubl.MemoryBudget;
+import custom.ubl.MockTokenManager;
+import custom.ubl.PriorityLanes;
+import custom.ubl.UBLValidator;
+import custom.ubl.TokenManager;
+import custom.ubl.RuntimeLogHandler;
+import custom.ubl.RuntimeLogCatalog;
+import custom.ubl.ProcessingType;
+import custom.ubl.Quarantine;
+import custom.ubl.RunJournal;
+import custom.ubl.ShardDirectory;
+
+import org.apache.commons.io.FileUtils;
+import oracle.xdo.XDOException;
+
+/**
+ * One execution of a ProcessingJob
+ * Holds the settings read from the configuration file and the state of the
+ * run, so that each job has its own copy. Created by ProcessingEngine,
+ * which provides the caches shared by the jobs.
+ */
+class ProcessingRun {
+
+    private String pAppHome;
+    private String pProcessHome;
+    private String pXdoConfig;
+    private String pDirInput;
+    private String pRtfTemplate;
+    private String pBurstKey;
+    private String pDirOutput;
+    private String pTempOutput;
+    private String pRunGS;
+    private String pCmdGS;
+    private String pTransform;
+    private String pTransformYN;
+    private String pRoutage;
+    private String pCopy;
+    private static final String TEMPLATE = "%TEMPLATE%";
+    private static final String FILE_NAME = "%FILE_NAME%";
+    private static final String APP_HOME = "%APP_HOME%";
+    private static final String PROCESS_HOME = "%PROCESS_HOME%";
+    private String templateName;
+    private String fileName;
+    private String pBurstOutput;
+    private String pSingleOutput;
+    private String pNumProc;
+    private String pExecutionMode;
+    private String pPipelineThreads;
+    private String pVirtualThreads;
+    private String pIOConcurrency;
+    private String pDBPoolSize;
+    private String pAdaptiveConcurrency;
+    private String pConcurrencyInterval;
+    private String pMaxProc;
+    private String pMemoryBudgetMB;
+    private String pShardDir;
+    private String pShardSize;
+    private String pShardLeaseTimeout;
+    private String pSpoolReader;
+    private String pXslCache;
+    private String pGSWorkers;
+    private String pPdfRenderer;
+    private String pPdfInMemory;
+    // Balises du nom des documents : activite_typePiece_doc_dct_kco
+    private String[] pDocNameTags;
+    private String pUpdateDB;
+    private String pSetLocale;
+    private String pDevMode;
+    private String pDevXSL;
+    private String errorMessage = " ";
+    private int errorCode = 0;
+    private String pXsdPath;
+    private String pSchematronPath;
+    private String paApiBaseUrl;
+    private String paApiLoginEndpoint;
+    private String paApiUsername;
+    private String paApiPassword;
+    private int paApiTimeout;
+
+    private String useMock;
+    private String mockBehavior;
+    private String pAttachment;
+
+    private final ProcessingEngine engine;
+    private final ProcessingJob job;
+    private final long start = System.currentTimeMillis();
+
+    ProcessingRun(ProcessingEngine engine, ProcessingJob job) {
+        this.engine = engine;
+        this.job = job;
+    }
+
+    /* Remplacement des variables dans les emplacements de fichier */
+    private String replaceConstValue(String inputStr) {
+        String replaceStr = inputStr.replace(APP_HOME, pAppHome);
+        replaceStr = replaceStr.replace(PROCESS_HOME, pProcessHome);
+        replaceStr = replaceStr.replace(TEMPLATE, templateName);
+        replaceStr = replaceStr.replace(FILE_NAME, fileName);
+        return replaceStr;
+    }
+
+    /* Initialisation des variables */
+    private void Init(String inputTemplate, String configFile, String inputFile) throws IOException {
+        try {
+            File file = new File(configFile);
+            Serializer serializer = new Persister();
+            Resources resources = serializer.read(Resources.class, file);
+
+            templateName = inputTemplate;
+            fileName = inputFile;
+
+            // Initialisation des variables globales du fichier de propriétés
+            Resource resource = resources.getResourceByName("global");
+            pAppHome = resource.getProperty("appHome");
+            pProcessHome = resource.getProperty("processHome");
+            pXdoConfig = resource.getProperty("xdo");
+            pDirInput = replaceConstValue(resource.getProperty("dirInput"));
+            pDirOutput = replaceConstValue(resource.getProperty("dirOutput"));
+            pTempOutput = replaceConstValue(resource.getProperty("tempOutput"));
+            pRunGS = resource.getProperty("runGS");
+            pCmdGS = resource.getProperty("cmdGS");
+            pRoutage = replaceConstValue(resource.getProperty("routageXSL"));
+            pCopy = replaceConstValue(resource.getProperty("copyXSL"));
+            pBurstOutput = resource.getProperty("burstOutput");
+            pSingleOutput = resource.getProperty("singleOutput");
+            pUpdateDB = resource.getProperty("updateDB");
+            pSetLocale = resource.getProperty("setLocale");
+            pDevMode = resource.getProperty("devModeYN");
+            pDevXSL = replaceConstValue(resource.getProperty("devXSL"));
+            pXsdPath = replaceConstValue(resource.getProperty("ublXsdPath"));
+            pSchematronPath = replaceConstValue(resource.getProperty("ublSchematronPath"));
+            paApiBaseUrl = resource.getProperty("paApiBaseUrl");
+            paApiLoginEndpoint = resource.getProperty("paApiLoginEndpoint");
+            paApiUsername = resource.getProperty("paApiUsername");
+            paApiPassword = resource.getProperty("paApiPassword");
+            String timeout = resource.getProperty("paApiTimeout");
+            paApiTimeout = (timeout != null) ? Integer.parseInt(timeout) : 30000;
+
+            useMock = resource.getProperty("paUseMock");
+            mockBehavior = resource.getProperty("paMockBehavior");
+            pExecutionMode = resource.getProperty("executionMode", "WORKER");
+            pPipelineThreads = resource.getProperty("pipelineThreads", "");
+            pVirtualThreads = resource.getProperty("virtualThreads", "N");
+            pIOConcurrency = resource.getProperty("ioConcurrency", "256");
+            pDBPoolSize = resource.getProperty("dbPoolSize", "");
+            pAdaptiveConcurrency = resource.getProperty("adaptiveConcurrency", "N");
+            pConcurrencyInterval = resource.getProperty("concurrencyInterval", "2000");
+            pMemoryBudgetMB = resource.getProperty("memoryBudgetMB", "");
+            pShardDir = replaceConstValue(resource.getProperty("shardDir", ""));
+            pShardSize = resource.getProperty("shardSize", "500");
+            pShardLeaseTimeout = resource.getProperty("shardLeaseTimeout", "60000");
+            pSpoolReader = resource.getProperty("spoolReader", "MAPPED");
+            pXslCache = replaceConstValue(resource.getProperty("xslCache", APP_HOME + "/cache/xsl"));
+            pGSWorkers = resource.getProperty("gsWorkers", "");
+            pPdfRenderer = resource.getProperty("pdfRenderer", "FOPROCESSOR");
+            pPdfInMemory = resource.getProperty("pdfInMemory", "N");
+
+            // Création des répertoires
+            FileUtils.forceMkdir(new File(pDirOutput));
+            FileUtils.forceMkdir(new File(pTempOutput));
+
+            // Initialisation des variables spécifiques à un template
+            resource = resources.getResourceByName(templateName);
+            pBurstKey = resource.getProperty("burstKey");
+            pDocNameTags = new String[] { resource.getProperty("activite"), resource.getProperty("typePiece"),
+                    resource.getProperty("docID"), resource.getProperty("typeJDE"),
+                    resource.getProperty("societeJDE") };
+            pRtfTemplate = replaceConstValue(resource.getProperty("rtf"));
+            pTransform = replaceConstValue(resource.getProperty("transform"));
+            pTransformYN = resource.getProperty("transformYN");
+            pNumProc = resource.getProperty("numProc");
+            pMaxProc = resource.getProperty("maxProc", "");
+            pAttachment = resource.getProperty("attachment");
+
+        } catch (Exception e) {
+            e.printStackTrace();
+            throw new IOException("Init : " + e.getMessage(), e);
+        }
+
+    }
+
+    /*
+     * Erreur fatale : trace dans le log d'exécution et arrêt du traitement.
+     * Le résultat du job porte l'erreur, le mode -run en fait le code retour.
+     */
+    private Exception fatalError(RuntimeLogHandler logHandler, String method, String message) {
+        logHandler.logError(method, message);
+        logHandler.logEnd(RuntimeLogCatalog.STATUS_FATAL_ERROR);
+        errorMessage = message;
+        errorCode = 1;
+        return new Exception(method + " : " + message);
+    }
+
+    /*
+     * Nombre de threads de chaque étape du mode PIPELINE : numProc pour les
+     * étapes de calcul, y compris la lecture qui analyse chaque facture et
+     * l'insère dans F564230, le double pour la base et l'envoi PA qui
+     * attendent surtout les réponses. La propriété pipelineThreads permet de les
+     * modifier, par exemple "render=4,send=8".
+     */
+    private Map<String, Integer> pipelineThreads(int processorCount) {
+        Map<String, Integer> threads = new HashMap<>();
+        threads.put(InvoicePipeline.STAGE_EXTRACT, processorCount);
+        threads.put(InvoicePipeline.STAGE_RENDER, processorCount);
+        threads.put(InvoicePipeline.STAGE_UBL, processorCount);
+        threads.put(InvoicePipeline.STAGE_VALIDATE, processorCount);
+        threads.put(InvoicePipeline.STAGE_PERSIST, processorCount * 2);
+        threads.put(InvoicePipeline.STAGE_SEND, processorCount * 2);
+
+        for (String entry : pPipelineThreads.split(",")) {
+            String[] value = entry.split("=");
+            if (value.length == 2 && threads.containsKey(value[0].trim())) {
+                threads.put(value[0].trim(), Integer.parseInt(value[1].trim()));
+            }
+        }
+        return threads;
+    }
+
+    /*
+     * Budget mémoire des factures en cours d'un job : la moitié du heap par
+     * défaut, memoryBudgetMB=0 pour ne pas limiter.
+     */
+    private MemoryBudget memoryBudget(ProcessingType paramType) {
+        long limitBytes = pMemoryBudgetMB.isBlank() ? Runtime.getRuntime().maxMemory() / 2
+                : Long.parseLong(pMemoryBudgetMB) << 20;
+        if (limitBytes <= 0) {
+            return null;
+        }
+        // PDF en mémoire sauf avec Ghostscript, comme dans CustomUBL.render
+        boolean pdfInMemory = "Y".equalsIgnoreCase(pPdfInMemory) && !"Y".equalsIgnoreCase(pRunGS);
+        return new MemoryBudget(limitBytes, paramType, "create".equals(pAttachment), pdfInMemory);
+    }
+
+    /*
+     * Lecture du spool : projection en mémoire par défaut, spoolReader=STREAM
+     * pour le parseur StAX (spool supprimé alors qu'il est encore projeté sous
+     * Windows par exemple).
+     */
+    private boolean mappedSpool() {
+        return !"STREAM".equalsIgnoreCase(pSpoolReader);
+    }
+
+    /*
+     * Spool du traitement : <fichier>.xml, ou <fichier>.xml.gz décompressé à
+     * la lecture quand le spool a été transféré compressé.
+     */
+    private File inputFile(String paramFile) {
+        File input = new File(pDirInput + paramFile + ".xml");
+        File compressed = new File(input.getPath() + Tools.GZIP_SUFFIX);
+        return !input.exists() && compressed.exists() ? compressed : input;
+    }
+
+    private FragmentSource openSpool(String spoolXML) throws IOException, XMLStreamException {
+        return mappedSpool() ? MappedSpoolSplitter.open(spoolXML, pBurstKey) : new SpoolSplitter(spoolXML, pBurstKey);
+    }
+
+    /*
+     * Exécution en parallèle des remises en forme de documents, au fil de la
+     * lecture du spool. Les factures sont déposées dans une file commune que
+     * les workers vident à leur rythme : aucun worker ne reste inactif tant
+     * qu'il reste des factures. La file est bornée, la mémoire utilisée ne
+     * dépend pas de la taille du spool.
+     */
+    private void runTasks(final ExecutorService executor, FragmentSource source, InvoiceQueue queue,
+            List<Callable<Integer>> workers) {
+
+        // Le service de terminaison
+        CompletionService<Integer> completionService = new ExecutorCompletionService<>(executor);
+
+        try {
+            // On démarre tous les workers avant la lecture du spool
+            for (Callable<Integer> worker : workers) {
+                completionService.submit(worker);
+            }
+
+            ByteBuffer fragment;
+            while ((fragment = source.next()) != null) {
+                // Arrêt de la lecture si un worker est en erreur
+                if (!queue.put(fragment)) {
+                    break;
+                }
+            }
+            queue.close();
+
+            for (int i = 0; i < workers.size(); i++) {
+                completionService.take().get();
+            }
+
+        } catch (InterruptedException | ExecutionException | XMLStreamException | IOException e) {
+            queue.abort(e);
+            errorMessage = e.getMessage();
+            errorCode = 1;
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /*
+     * Traitement des documents d'un spool, ou d'un lot en mode distribué,
+     * par les workers ou le pipeline
+     */
+    private void runBurst(FragmentSource source, RunJournal journal, Quarantine quarantine,
+            XslTemplate xslTemplate, boolean preRenderedPDF, UBLValidator ublValidator,
+            TokenManager tokenManager, RuntimeLogHandler logHandler) throws Exception {
+        String paramTemplate = job.getTemplate();
+        String paramFile = job.getFileName();
+        String paramConfig = job.getConfigFile();
+        ProcessingType paramType = job.getType();
+        boolean displayError = job.isDisplayError();
+        int processorCount = Integer.parseInt(pNumProc);
+        InvoiceQueue queue;
+        List<Callable<Integer>> workers = new ArrayList<>();
+        InvoicePipeline pipeline = null;
+        ConcurrencyController controller = null;
+        // Mémoire des factures en cours : la lecture du spool attend au-delà du budget
+        MemoryBudget budget = memoryBudget(paramType);
+        if ("PIPELINE".equalsIgnoreCase(pExecutionMode)) {
+            // Une étape par traitement, chacune avec ses propres threads
+            Map<String, Integer> threads = pipelineThreads(processorCount);
+            // Base et envoi PA sur threads virtuels
+            int ioConcurrency = "Y".equalsIgnoreCase(pVirtualThreads) ? Integer.parseInt(pIOConcurrency) : 0;
+            // Connexions partagées par toutes les étapes
+            int dbPoolSize = pDBPoolSize.isBlank() ? processorCount * 2 : Integer.parseInt(pDBPoolSize);
+            queue = new InvoiceQueue(threads.get(InvoicePipeline.STAGE_EXTRACT), budget);
+            CustomUBL processor = new CustomUBL(queue, xslTemplate, paramTemplate,
+                    paramFile, paramConfig, paramType, ublValidator, tokenManager, journal, quarantine,
+                    null, displayError);
+            processor.setPreRenderedPDF(preRenderedPDF);
+            pipeline = new InvoicePipeline(queue, processor, threads, ioConcurrency, dbPoolSize, displayError);
+            workers.add(pipeline);
+        } else {
+            // Nombre de workers actifs ajusté au débit mesuré, plafonné à maxProc
+            controller = new ConcurrencyController(processorCount,
+                    pMaxProc.isBlank() ? processorCount * 2 : Integer.parseInt(pMaxProc),
+                    "Y".equalsIgnoreCase(pAdaptiveConcurrency), Long.parseLong(pConcurrencyInterval),
+                    engine.getLanes(), job.getLane());
+            queue = new InvoiceQueue(controller.getWorkerCount(), budget);
+            for (int i = 0; i < controller.getWorkerCount(); i++) {
+                CustomUBL worker = new CustomUBL(queue, xslTemplate, paramTemplate, paramFile, paramConfig,
+                        paramType, ublValidator, tokenManager, journal, quarantine, controller,
+                        displayError);
+                worker.setPreRenderedPDF(preRenderedPDF);
+                workers.add(worker);
+            }
+        }
+        ExecutorService execute = Executors.newFixedThreadPool(workers.size());
+        runTasks(execute, source, queue, workers);
+        if (controller != null) {
+            controller.closeConnections();
+        }
+        if (pipeline != null && pUpdateDB.equals("Y")) {
+            // Débit de chaque étape dans le log d'exécution
+            for (LogCatalog.LogEntry metric : pipeline.getStageMetrics()) {
+                logHandler.insertLog(RuntimeLogCatalog.METHOD_PIPELINE, metric.getMessage());
+            }
+        }
+        LogCatalog.LogEntry memoryReport = queue.getMemoryReport();
+        if (memoryReport != null) {
+            memoryReport.print(displayError);
+            if (pUpdateDB.equals("Y")) {
+                logHandler.insertLog(RuntimeLogCatalog.METHOD_MEMORY, memoryReport.getMessage());
+            }
+        }
+        if (controller != null && pUpdateDB.equals("Y")) {
+            // Décisions du contrôleur de concurrence dans le log d'exécution
+            for (String decision : controller.getDecisions()) {
+                logHandler.insertLog(RuntimeLogCatalog.METHOD_CONCURRENCY, decision);
+            }
+        }
+        if (errorCode == 1) {
+            throw fatalError(logHandler, RuntimeLogCatalog.METHOD_RUN_TASKS, errorMessage);
+        }
+    }
+
+    /*
+     * Mode distribué : les noeuds qui partagent shardDir se répartissent les
+     * lots du spool. Chaque lot est traité avec son propre journal, relu si
+     * le lot est repris après l'arrêt d'un noeud, et ses sorties sont
+     * copiées dans le répertoire partagé. Le dernier noeud publie le tout
+     * dans burstOutput.
+     */
+    private void runShards(String spoolXML, Quarantine quarantine, XslTemplate xslTemplate,
+            UBLValidator ublValidator, TokenManager tokenManager, RuntimeLogHandler logHandler) throws Exception {
+        String nodeId = InetAddress.getLocalHost().getHostName() + "-" + ProcessHandle.current().pid();
+        File root = new File(pShardDir, job.getTemplate() + "/" + job.getFileName());
+
+        try (ShardDirectory shards = new ShardDirectory(root, nodeId, Long.parseLong(pShardLeaseTimeout))) {
+            if (new File(spoolXML).exists()) {
+                shards.setSpool(spoolXML, pBurstKey, Integer.parseInt(pShardSize), mappedSpool());
+            }
+            if (job.isResume()) {
+                shards.reopenFailed();
+            }
+
+            ShardDirectory.Lease lease;
+            while ((lease = shards.claim()) != null) {
+                int quarantined = quarantine.getCount();
+                try (RunJournal journal = new RunJournal(lease.getJournalFile(), true);
+                        FragmentSource source = lease.open()) {
+                    runBurst(source, journal, quarantine, xslTemplate, false, ublValidator, tokenManager,
+                            logHandler);
+                } catch (Exception e) {
+                    // Lot rendu : un autre noeud le reprend depuis son journal
+                    lease.release();
+                    throw e;
+                }
+                // Sorties publiées avant de marquer le lot terminé
+                FileUtils.copyDirectory(new File(pDirOutput), shards.getOutputDir(), false);
+                FileUtils.cleanDirectory(new File(pDirOutput));
+                if (lease.isLost()) {
+                    // Lot repris par un autre noeud : il le termine depuis le journal
+                    continue;
+                }
+
+                boolean failed = quarantine.getCount() > quarantined;
+                lease.complete(failed);
+                LogCatalog.LogEntry entry = LogCatalog.shardProcessed(lease.getNumber(), nodeId, failed);
+                entry.print(job.isDisplayError());
+                if (pUpdateDB.equals("Y")) {
+                    logHandler.insertLog(RuntimeLogCatalog.METHOD_SHARD, entry.getMessage());
+                }
+            }
+
+            // Tous les lots sont terminés : un seul noeud publie les sorties
+            if (shards.claimAssembly()) {
+                FileUtils.copyDirectory(shards.getOutputDir(), new File(pBurstOutput), false);
+                LogCatalog.shardsAssembled(shards.getShardCount(), pBurstOutput).print(true);
+                if (shards.hasFailedShards()) {
+                    // Les lots en échec sont repris par -resume
+                    FileUtils.cleanDirectory(shards.getOutputDir());
+                } else {
+                    shards.cleanUp();
+                }
+            }
+        }
+    }
+
+    /*
+     * Mise en forme PDF de tout le spool par le moteur de bursting de BI
+     * Publisher, avec un fichier de contrôle généré depuis le template :
+     * éléments burstKey, PDF nommés activite_typePiece_doc_dct_kco dans
+     * tempOutput. xdo.cfg, polices et template ne sont chargés qu'une fois
+     * par travail, mais la passe est séquentielle et précède les workers, et
+     * elle met aussi en forme les documents que insertDocumentLog écartera.
+     * Non utilisé en reprise. En cas d'échec, les workers mettent en forme
+     * chaque document eux-mêmes.
+     */
+    private boolean renderBursting(String spoolXML, XslTemplate xslTemplate, String paramFile,
+            RuntimeLogHandler logHandler) throws IOException {
+        String templateFO = pTempOutput + paramFile + "_fo.xsl";
+        try (OutputStream out = new FileOutputStream(templateFO)) {
+            xslTemplate.writeTo(out);
+        }
+        StringBuilder outputPDF = new StringBuilder(pTempOutput);
+        for (int i = 0; i < pDocNameTags.length; i++) {
+            outputPDF.append(i > 0 ? "_" : "").append("${").append(pDocNameTags[i]).append('}');
+        }
+        outputPDF.append(".pdf");
+
+        String controlFile = pTempOutput + paramFile + "_burst.xml";
+        BIPublisher.writeBurstControl(controlFile, pBurstKey, templateFO, outputPDF.toString(), pSetLocale);
+        BIPTransformResult<Void> burstResult = BIPublisher.burstToPDF(spoolXML, controlFile, pTempOutput,
+                pXdoConfig);
+        if (burstResult.hasError()) {
+            logHandler.logError(RuntimeLogCatalog.METHOD_BURST_PDF, burstResult.getErrorMessage());
+            return false;
+        }
+        return true;
+    }
+
+    /* Processus Ghostscript résidents : un par processeur par défaut */
+    private int gsWorkers() {
+        return pGSWorkers.isBlank() ? Runtime.getRuntime().availableProcessors() : Integer.parseInt(pGSWorkers);
+    }
+
+    /* Remise en forme d'un document */
+    private void runSingle(byte[] inputXML, XslTemplate xslTemplate, String outputPDF) {
+        try {
+            // Configuration BI Publisher chargée une fois pour le processus
+            RenderService.forConfig(pXdoConfig, pSetLocale)
+                    .render(new ByteArrayInputStream(inputXML), xslTemplate, pTempOutput + outputPDF);
+
+            // Publication sans processus externe, ou par un Ghostscript résident
+            if (pRunGS.equalsIgnoreCase("Y")) {
+                GhostscriptPool.forCommand(pCmdGS, gsWorkers(), pTempOutput, pTempOutput, pDirOutput)
+                        .convert(pTempOutput + outputPDF, pDirOutput + outputPDF);
+            } else {
+                Tools.publish(pTempOutput + outputPDF, pDirOutput + outputPDF);
+            }
+        } catch (IOException | XDOException e) {
+            errorMessage = e.getMessage();
+            errorCode = 1;
+        }
+
+    }
+
+    /*
+     * Remise en forme des documents avec reprise éventuelle : en mode burst,
+     * les documents terminés sont notés dans un journal. En cas d'échec, le
+     * journal et le répertoire de traitement sont conservés, et l'exécution
+     * avec resume ne traite que les documents restants.
+     */
+    ProcessingResult execute() throws Exception {
+        String paramTemplate = job.getTemplate();
+        String paramFile = job.getFileName();
+        ProcessingType paramType = job.getType();
+        String paramConfig = job.getConfigFile();
+        boolean displayError = job.isDisplayError();
+        boolean resume = job.isResume();
+
+        // Create runtime log handler for this execution
+        RuntimeLogHandler logHandler = new RuntimeLogHandler(paramConfig, paramTemplate, paramFile, paramType);
+        RunJournal journal = null;
+        Quarantine quarantine = null;
+        boolean completed = false;
+        ProcessingResult result;
+        RenderService.Metrics renderStart = RenderService.metrics();
+
+        try {
+
+            /* Initialisation des valeurs de paramètres */
+            Init(paramTemplate, paramConfig, paramFile);
+
+            /* Nouvelle exécution : pas de fichiers d'une exécution interrompue */
+            File journalFile = new File(pProcessHome + "/" + paramTemplate + "/" + paramFile + ".journal");
+            if (!resume || !journalFile.exists()) {
+                FileUtils.cleanDirectory(new File(pDirOutput));
+                FileUtils.cleanDirectory(new File(pTempOutput));
+            }
+
+            /* Log du début de traitement */
+            RuntimeLogHandler.LogResult logResult = logHandler.logStart();
+            if (logResult.hasError()) {
+                System.err.println("Failed to log START: " + logResult.getErrorMessage());
+            }
+
+            /* Initialisation du fichier d'entrée, compressé ou non */
+            String inputXML = inputFile(paramFile).getPath();
+
+            /* Spool transformé avant le découpage */
+            String tempXML = pTempOutput + paramFile + ".xml";
+
+            /* Mode distribué : seul le noeud qui a le spool le transforme et le découpe */
+            boolean shardFollower = !pShardDir.isBlank() && paramType != ProcessingType.SINGLE
+                    && !new File(inputXML).exists();
+
+            /*
+             * Transformations XSLT du spool, enchaînées en mémoire : la
+             * transformation du début de traitement puis celles du mode
+             */
+            List<String> transforms = new ArrayList<>();
+            if (pTransformYN.equals("Y") && !shardFollower) {
+                transforms.add(pTransform);
+            }
+
+            XslTemplate xslTemplate = null;
+
+            // Conversion RTF uniquement si nécessaire pour BURST, BOTH ou création
+            // d'attachments
+            if (paramType.involvesPDF() || (pAttachment != null && pAttachment.equals("create"))) {
+                // XSL repris du cache tant que le RTF et BI Publisher ne changent pas
+                BIPTransformResult<XslTemplate> rtfConversionResult = BIPublisher.convertRTFXSL(pRtfTemplate,
+                        pXslCache);
+                xslTemplate = rtfConversionResult.getData();
+                if (rtfConversionResult.hasError()) {
+                    throw fatalError(logHandler, RuntimeLogCatalog.METHOD_CONVERT_RTF,
+                            rtfConversionResult.getErrorMessage());
+                }
+            }
+
+            if (paramType == ProcessingType.SINGLE) {
+                // Place dans la voie du travail, partagée avec les autres travaux du moteur
+                PriorityLanes lanes = engine.getLanes();
+                boolean hasData;
+                if (lanes != null) {
+                    lanes.acquire(job.getLane());
+                }
+                try {
+                    if (pDevMode.equals("Y")) {
+                        transforms.add(pDevXSL);
+                    } else {
+                        transforms.add(pRoutage);
+                        transforms.add(pCopy);
+                    }
+                    // Document mis en forme gardé en mémoire, vide s'il n'a pas d'identifiant
+                    ByteArrayOutputStream singleXML = new ByteArrayOutputStream();
+                    TransformResult<Boolean> transformResult = Tranform.transformChain(inputXML, singleXML,
+                            transforms, "ID_DU_DOCUMENT");
+                    if (transformResult.hasError()) {
+                        throw fatalError(logHandler, RuntimeLogCatalog.METHOD_TRANSFORM_XSL,
+                                transformResult.getErrorMessage());
+                    }
+                    hasData = transformResult.getData();
+
+                    runSingle(singleXML.toByteArray(), xslTemplate, paramFile + ".pdf");
+                    if (errorCode == 1) {
+                        throw fatalError(logHandler, RuntimeLogCatalog.METHOD_RUN_SINGLE, errorMessage);
+                    }
+                } finally {
+                    if (lanes != null) {
+                        lanes.release(job.getLane());
+                    }
+                }
+
+                // Copie des fichiers dans le répertoire E1
+                FileUtils.copyDirectory(new File(pDirOutput), new File(pSingleOutput), false);
+
+                // Vérification si le fichier n'est pas vide
+                if (!hasData)
+                    if (pUpdateDB.equals("Y")) {
+                        logHandler.logEnd(RuntimeLogCatalog.STATUS_NO_DATA);
+                    }
+
+            } else {
+                String spoolXML = inputXML;
+                if (pDevMode.equals("Y") && !shardFollower) {
+                    transforms.add(pDevXSL);
+                }
+                // Un seul fichier écrit, relu par le découpage
+                if (!transforms.isEmpty()) {
+                    try (OutputStream out = new BufferedOutputStream(new FileOutputStream(tempXML), 64 * 1024)) {
+                        TransformResult<Boolean> transformResult = Tranform.transformChain(inputXML, out,
+                                transforms, null);
+                        if (transformResult.hasError()) {
+                            throw fatalError(logHandler, RuntimeLogCatalog.METHOD_TRANSFORM_XSL,
+                                    transformResult.getErrorMessage());
+                        }
+                    }
+                    spoolXML = tempXML;
+                }
+
+                // Journal des documents terminés, relu en cas de reprise (un par lot en mode distribué)
+                if (pShardDir.isBlank()) {
+                    journal = new RunJournal(journalFile, resume);
+                }
+                if (journal != null && resume && journal.getDoneCount() > 0) {
+                    LogCatalog.journalResumed(journalFile.getPath(), journal.getDoneCount()).print(true);
+                    logHandler.insertLog(RuntimeLogCatalog.METHOD_RESUME,
+                            journal.getDoneCount() + " document(s) already finished");
+                }
+                // Documents en erreur de cette exécution, les précédents sont repris
+                File quarantineDir = new File(pProcessHome + "/" + paramTemplate + "/" + paramFile + ".quarantine");
+                FileUtils.deleteDirectory(quarantineDir);
+                quarantine = new Quarantine(quarantineDir);
+
+                UBLValidator ublValidator = null;
+                TokenManager tokenManager = null;
+
+                if (paramType.involvesUBL()) {
+                    ublValidator = engine.getValidator(pXsdPath, pSchematronPath);
+
+                    // Create shared TokenManager once for all tasks (real or mock)
+                    // This avoids creating thousands of tokens for thousands of tasks
+                    // Mock mode: Creates MockTokenManager to simulate token generation without PA
+                    // connection
+                    // Real mode: Creates real TokenManager that connects to PA API
+                    if (paramType.shouldSendToPA()) {
+
+                        if ("Y".equalsIgnoreCase(useMock)) {
+                            // Mock mode: Create MockTokenManager to simulate authentication
+                            MockTokenManager.TokenBehavior behavior = MockTokenManager.TokenBehavior.ALWAYS_SUCCESS;
+                            if (mockBehavior != null) {
+                                try {
+                                    behavior = MockTokenManager.TokenBehavior.valueOf(mockBehavior.toUpperCase());
+                                } catch (IllegalArgumentException e) {
+                                    // Use default behavior
+                                }
+                            }
+                            tokenManager = new MockTokenManager(
+                                    paApiBaseUrl,
+                                    paApiLoginEndpoint,
+                                    paApiUsername,
+                                    paApiPassword,
+                                    paApiTimeout,
+                                    behavior,
+                                    displayError);
+
+                            // Pre-fetch token to test authentication flow
+                            String initialToken = tokenManager.getToken();
+                            if (initialToken == null) {
+                                if (pUpdateDB.equals("Y")) {
+                                    logHandler.logError(RuntimeLogCatalog.METHOD_PA_AUTH,
+                                            "Mock authentication failed - check mock behavior");
+                                }
+                            } else if (pUpdateDB.equals("Y")) {
+                                RuntimeLogHandler.LogResult authLogResult = logHandler.insertLog(
+                                        RuntimeLogCatalog.METHOD_PA_AUTH,
+                                        "Mock authentication successful (behavior: " + behavior + ")");
+                                if (authLogResult.hasError()) {
+                                    System.err.println("Runtime log error: " + authLogResult.getErrorMessage());
+                                }
+                            }
+                        } else {
+                            // Real API mode: Reuse the TokenManager of previous runs of the engine
+                            tokenManager = engine.getTokenManager(paApiBaseUrl, paApiLoginEndpoint,
+                                    paApiUsername, paApiPassword, paApiTimeout, displayError);
+
+                            // Pre-fetch token to fail early if credentials are wrong
+                            String initialToken = tokenManager.getToken();
+                            if (initialToken == null) {
+                                if (pUpdateDB.equals("Y")) {
+                                    logHandler.logError(RuntimeLogCatalog.METHOD_PA_AUTH,
+                                            "Failed to authenticate with PA API - check credentials");
+                                }
+                            } else if (pUpdateDB.equals("Y")) {
+                                RuntimeLogHandler.LogResult authLogResult = logHandler.insertLog(
+                                        RuntimeLogCatalog.METHOD_PA_AUTH, "PA API authentication successful");
+                                if (authLogResult.hasError()) {
+                                    System.err.println("Runtime log error: " + authLogResult.getErrorMessage());
+                                }
+                            }
+                        }
+                    }
+                }
+
+                if (pShardDir.isBlank()) {
+                    // PDF de tout le spool rendus d'abord en une passe (pdfRenderer=BURSTING),
+                    // sauf en reprise : seuls les documents restants sont mis en forme, par les workers
+                    boolean preRenderedPDF = "BURSTING".equalsIgnoreCase(pPdfRenderer)
+                            && (paramType.involvesPDF() || "create".equals(pAttachment))
+                            && !journal.hasEntries()
+                            && renderBursting(spoolXML, xslTemplate, paramFile, logHandler);
+                    // Découpage du spool en flux : le traitement démarre pendant la lecture
+                    try (FragmentSource splitter = openSpool(spoolXML)) {
+                        runBurst(splitter, journal, quarantine, xslTemplate, preRenderedPDF, ublValidator,
+                                tokenManager, logHandler);
+                    }
+                    // Copie des fichiers dans le répertoire d'envoi
+                    FileUtils.copyDirectory(new File(pDirOutput), new File(pBurstOutput), false);
+                } else {
+                    runShards(spoolXML, quarantine, xslTemplate, ublValidator, tokenManager, logHandler);
+                }
+
+            }
+            // Temps de préparation et de mise en page des PDF de ce traitement
+            RenderService.Metrics rendered = RenderService.metrics().since(renderStart);
+            if (rendered.getDocuments() > 0) {
+                LogCatalog.LogEntry renderReport = LogCatalog.renderMetrics(rendered.getDocuments(),
+                        rendered.getSetupMs(), rendered.getLayoutMs(), rendered.getLoads(), rendered.getLoadMs());
+                renderReport.print(displayError);
+                if (pUpdateDB.equals("Y")) {
+                    logHandler.insertLog(RuntimeLogCatalog.METHOD_RENDER, renderReport.getMessage());
+                }
+            }
+            if (quarantine != null && quarantine.getCount() > 0) {
+                // Documents publiés : la reprise ne traitera que la quarantaine
+                FileUtils.cleanDirectory(new File(pDirOutput));
+                for (String document : quarantine.getDocuments()) {
+                    logHandler.insertLog(RuntimeLogCatalog.METHOD_QUARANTINE, document);
+                }
+                LogCatalog.quarantineSummary(quarantine.getCount(), quarantine.getDirectory().getPath()).print(true);
+                String message = quarantine.getCount() + " document(s) in quarantine";
+                logHandler.logEnd(RuntimeLogCatalog.STATUS_COMPLETED_WITH_ERRORS + ": " + message);
+                result = ProcessingResult.completedWithErrors(message, quarantine.getDocuments(),
+                        System.currentTimeMillis() - start);
+            } else {
+                // Suppression fichier input, présent sur un seul noeud en mode distribué
+                File input = inputFile(paramFile);
+                if (pShardDir.isBlank() || input.exists()) {
+                    FileUtils.forceDelete(input);
+                }
+                logHandler.logEnd(RuntimeLogCatalog.STATUS_SUCCESSFUL);
+                completed = true;
+                result = ProcessingResult.success(System.currentTimeMillis() - start);
+            }
+
+        } catch (IOException | NumberFormatException | XMLStreamException e) {
+            logHandler.logEnd(RuntimeLogCatalog.STATUS_FATAL_ERROR + ": " + e.getMessage());
+            throw e;
+        } finally {
+            if (journal != null) {
+                journal.close();
+            }
+            // Les documents terminés restent dans le répertoire de traitement pour la reprise
+            File journalFile = new File(pProcessHome + "/" + paramTemplate + "/" + paramFile + ".journal");
+            boolean keepForResume = !completed && pProcessHome != null && journalFile.exists();
+            if (keepForResume) {
+                LogCatalog.journalKept(journalFile.getPath()).print(true);
+            } else if (pProcessHome != null) {
+                journalFile.delete();
+            }
+            // Suppression répertoire temporaire
+            File rmdDir = new File(pProcessHome + "/" + paramTemplate + "/" + paramFile);
+            if (pProcessHome != null && rmdDir.exists() && !keepForResume) {
+                FileUtils.forceDelete(rmdDir);
+            }
+
+        }
+        return result;
+    }
+}
@@ -0,0 +1,45 @@
+/*
+ * Copyright (c) 2025 NOMANA-IT and/or its affiliates.
+ * All rights reserved. Use is subject to license terms.
+ *
+ * @author fblettner
+ */
+
+import custom.resources.FragmentSource;
+import custom.resources.MappedSpoolSplitter;
+import custom.resources.SpoolSplitter;
+import java.io.File;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Checks the splitting of gzip spools against the DOM
+ *
+ * The SplitterCheck sample spools are compressed to .xml.gz: SpoolSplitter
+ * must read them as they are, and MappedSpoolSplitter.open must leave them
+ * to the StAX splitter, with the same fragments as getElementsByTagName.
+ *
+ * Usage: java GzipSplitterCheck [work directory]
+ */
+public class GzipSplitterCheck {
+
+    public static void main(String[] args) throws Exception {
+        File dir = SplitterCheck.workDir(args, "gzip-splitter-check");
+        for (SplitterCheck.Spool spool : SplitterCheck.spools()) {
+            File gzip = new File(dir, spool.name + ".xml.gz");
+            try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(gzip.toPath()))) {
+                out.write(spool.content);
+            }
+            SplitterCheck.compare(spool.name + " / SpoolSplitter gzip", new SpoolSplitter(gzip.getPath(),
+                    spool.burstKey), spool.expected());
+
+            FragmentSource source = MappedSpoolSplitter.open(gzip.getPath(), spool.burstKey);
+            if (source instanceof MappedSpoolSplitter) {
+                SplitterCheck.fail(spool.name, "gzip spool mapped");
+            }
+            SplitterCheck.compare(spool.name + " / MappedSpoolSplitter gzip", source, spool.expected());
+        }
+        SplitterCheck.exit("GzipSplitterCheck");
+    }
+}
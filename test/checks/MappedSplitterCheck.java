@@ -0,0 +1,46 @@
+/*
+ * Copyright (c) 2025 NOMANA-IT and/or its affiliates.
+ * All rights reserved. Use is subject to license terms.
+ *
+ * @author fblettner
+ */
+
+import custom.resources.FragmentSource;
+import custom.resources.MappedSpoolSplitter;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Checks the memory-mapped spool splitter against the DOM
+ *
+ * The UTF-8 sample spools of SplitterCheck must be mapped and give the same
+ * fragments as getElementsByTagName. Spools that cannot be sliced (other
+ * encoding, DOCTYPE) must fall back to the StAX splitter with the same
+ * result.
+ *
+ * Usage: java MappedSplitterCheck [work directory]
+ */
+public class MappedSplitterCheck {
+
+    public static void main(String[] args) throws Exception {
+        File dir = SplitterCheck.workDir(args, "mapped-splitter-check");
+        for (SplitterCheck.Spool spool : SplitterCheck.spools()) {
+            check(dir, spool, true);
+        }
+        check(dir, new SplitterCheck.Spool("latin1", "G", ("<?xml version=\"1.0\" encoding=\"ISO-8859-1\"?>\n"
+                + "<R><G>Société</G><G>Noël</G></R>\n").getBytes(StandardCharsets.ISO_8859_1)), false);
+        check(dir, new SplitterCheck.Spool("doctype", "G", ("<?xml version=\"1.0\"?>\n"
+                + "<!DOCTYPE R [<!ENTITY co \"NOMANA\">]>\n"
+                + "<R><G>&co;</G><G>x</G></R>\n").getBytes(StandardCharsets.UTF_8)), false);
+        SplitterCheck.exit("MappedSplitterCheck");
+    }
+
+    private static void check(File dir, SplitterCheck.Spool spool, boolean mapped) throws Exception {
+        File file = spool.write(dir);
+        FragmentSource source = MappedSpoolSplitter.open(file.getPath(), spool.burstKey);
+        if ((source instanceof MappedSpoolSplitter) != mapped) {
+            SplitterCheck.fail(spool.name, mapped ? "UTF-8 spool not mapped" : "spool mapped instead of read by StAX");
+        }
+        SplitterCheck.compare(spool.name + " / MappedSpoolSplitter", source, spool.expected());
+    }
+}
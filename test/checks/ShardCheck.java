@@ -0,0 +1,255 @@
+/*
+ * Copyright (c) 2025 NOMANA-IT and/or its affiliates.
+ * All rights reserved. Use is subject to license terms.
+ *
+ * @author fblettner
+ */
+
+import custom.resources.FragmentSource;
+import custom.ubl.ShardDirectory;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Checks the shard claims of two nodes sharing a ShardDirectory
+ *
+ * - two nodes claim the shards of a spool held by one of them: each shard
+ * is processed once and every invoice is read once,
+ * - a node that stops keeps its leases until they expire, then the other
+ * node takes them over,
+ * - a node whose lease is taken over stops reading the shard and cannot
+ * complete it,
+ * - a new spool with the name of a spool already published is processed
+ * again, while the same spool is not.
+ *
+ * Usage: java ShardCheck [work directory]
+ */
+public class ShardCheck {
+
+    private static final long LEASE_TIMEOUT = 600;
+    private static final Pattern ID = Pattern.compile("<ID>(\\d+)</ID>");
+
+    private static int failures;
+
+    public static void main(String[] args) throws Exception {
+        File dir = new File(args.length > 0 ? args[0] : System.getProperty("java.io.tmpdir"), "shard-check");
+        Files.createDirectories(dir.toPath());
+        File spool = new File(dir, "spool.xml");
+        writeSpool(spool, 103);
+
+        twoNodes(new File(dir, "two-nodes"), spool, 103);
+        expiry(new File(dir, "expiry"), spool);
+        takeover(new File(dir, "takeover"), spool);
+        rerun(new File(dir, "rerun"), new File(dir, "rerun.xml"));
+
+        if (failures > 0) {
+            System.out.println("ShardCheck: " + failures + " failure(s)");
+            System.exit(1);
+        }
+        System.out.println("ShardCheck: OK");
+    }
+
+    /* Deux noeuds en parallèle, le spool sur le premier seulement */
+    private static void twoNodes(File root, File spool, int invoices) throws Exception {
+        clean(root);
+        Set<Integer> shards = ConcurrentHashMap.newKeySet();
+        Set<Integer> ids = ConcurrentHashMap.newKeySet();
+        List<String> errors = Collections.synchronizedList(new ArrayList<>());
+        ExecutorService nodes = Executors.newFixedThreadPool(2);
+        try (ShardDirectory a = new ShardDirectory(root, "A", LEASE_TIMEOUT);
+                ShardDirectory b = new ShardDirectory(root, "B", LEASE_TIMEOUT)) {
+            a.setSpool(spool.getPath(), "G", 5, true);
+            List<Future<Integer>> results = new ArrayList<>();
+            for (ShardDirectory node : List.of(a, b)) {
+                results.add(nodes.submit(() -> {
+                    int claimed = 0;
+                    ShardDirectory.Lease lease;
+                    while ((lease = node.claim()) != null) {
+                        if (!shards.add(lease.getNumber())) {
+                            errors.add("shard " + lease.getNumber() + " claimed twice");
+                        }
+                        for (int id : read(lease)) {
+                            if (!ids.add(id)) {
+                                errors.add("invoice " + id + " read twice");
+                            }
+                        }
+                        lease.complete(false);
+                        claimed++;
+                    }
+                    return claimed;
+                }));
+            }
+            int claimedA = results.get(0).get();
+            int claimedB = results.get(1).get();
+            check("two-nodes", errors.isEmpty(), String.join(", ", errors));
+            check("two-nodes", shards.size() == a.getShardCount(),
+                    shards.size() + " shards processed, " + a.getShardCount() + " indexed");
+            check("two-nodes", ids.size() == invoices, ids.size() + " invoices read, " + invoices + " expected");
+            check("two-nodes", a.claimAssembly() != b.claimAssembly(), "assembly claimed by both nodes or none");
+            System.out.println("  two-nodes: " + shards.size() + " shards, A " + claimedA + ", B " + claimedB);
+        } finally {
+            nodes.shutdownNow();
+        }
+    }
+
+    /* Noeud arrêté : ses baux sont repris après expiration seulement */
+    private static void expiry(File root, File spool) throws Exception {
+        clean(root);
+        ShardDirectory a = new ShardDirectory(root, "A", LEASE_TIMEOUT);
+        a.setSpool(spool.getPath(), "G", 50, false);
+        ShardDirectory.Lease first = a.claim();
+        ShardDirectory.Lease second = a.claim();
+        waitIndexed(a);
+        int total = a.getShardCount();
+        a.close();
+        // Dernier renouvellement des baux de A, le délai d'expiration part de là
+        Thread.sleep(50);
+        long renewed = Math.max(new File(root, String.format("shard-%05d.lease", first.getNumber())).lastModified(),
+                new File(root, String.format("shard-%05d.lease", second.getNumber())).lastModified());
+
+        try (ShardDirectory b = new ShardDirectory(root, "B", LEASE_TIMEOUT)) {
+            Set<Integer> taken = new HashSet<>();
+            ShardDirectory.Lease lease;
+            while ((lease = b.claim()) != null) {
+                boolean held = lease.getNumber() == first.getNumber() || lease.getNumber() == second.getNumber();
+                long elapsed = System.currentTimeMillis() - renewed;
+                check("expiry", !held || elapsed >= LEASE_TIMEOUT,
+                        "shard " + lease.getNumber() + " taken over after " + elapsed + " ms");
+                check("expiry", taken.add(lease.getNumber()), "shard " + lease.getNumber() + " claimed twice");
+                lease.complete(false);
+            }
+            check("expiry", taken.size() == total, taken.size() + " shards processed, " + total + " indexed");
+            System.out.println("  expiry: " + taken.size() + " shards, leases of A taken over after "
+                    + (System.currentTimeMillis() - renewed) + " ms");
+        }
+    }
+
+    /* Bail repris pendant le traitement : le lot n'est plus lu ni terminé ici */
+    private static void takeover(File root, File spool) throws Exception {
+        clean(root);
+        try (ShardDirectory a = new ShardDirectory(root, "A", LEASE_TIMEOUT);
+                ShardDirectory b = new ShardDirectory(root, "B", LEASE_TIMEOUT)) {
+            a.setSpool(spool.getPath(), "G", 10, false);
+            ShardDirectory.Lease lease = a.claim();
+            FragmentSource source = lease.open();
+            check("takeover", source.next() != null, "first fragment not read");
+
+            // Reprise par B, comme après une expiration mal détectée par A
+            File leaseFile = new File(root, String.format("shard-%05d.lease", lease.getNumber()));
+            Files.write(leaseFile.toPath(), "B".getBytes(StandardCharsets.UTF_8));
+            Thread.sleep(LEASE_TIMEOUT);
+
+            check("takeover", lease.isLost(), "lease not reported lost");
+            check("takeover", source.next() == null, "fragments still read after the lease was lost");
+            try {
+                lease.complete(false);
+                check("takeover", false, "lost shard completed");
+            } catch (IOException e) {
+                // Attendu : le lot appartient à B
+            }
+            check("takeover", !new File(root, String.format("shard-%05d.done", lease.getNumber())).exists(),
+                    "done marker written by the lost lease");
+            check("takeover", "B".equals(Files.readString(leaseFile.toPath())), "lease of B removed by A");
+
+            // B termine ensuite tous les lots, celui repris compris
+            Files.delete(leaseFile.toPath());
+            waitIndexed(a);
+            Set<Integer> taken = new HashSet<>();
+            ShardDirectory.Lease next;
+            while ((next = b.claim()) != null) {
+                check("takeover", taken.add(next.getNumber()), "shard " + next.getNumber() + " claimed twice");
+                next.complete(false);
+            }
+            check("takeover", taken.size() == a.getShardCount(),
+                    taken.size() + " shards processed, " + a.getShardCount() + " indexed");
+            System.out.println("  takeover: lost lease refused, " + taken.size() + " shards finished by B");
+        }
+    }
+
+    /* Spool de même nom après une exécution publiée */
+    private static void rerun(File root, File spool) throws Exception {
+        clean(root);
+        writeSpool(spool, 20);
+        check("rerun", runAll(root, spool) == 20, "first spool not processed");
+        check("rerun", runAll(root, spool) == 0, "same spool processed again");
+
+        writeSpool(spool, 30);
+        check("rerun", runAll(root, spool) == 30, "new spool of the same name not processed");
+        System.out.println("  rerun: new spool processed, same spool skipped");
+    }
+
+    /* Exécution complète sur un noeud, publication comprise : factures lues */
+    private static int runAll(File root, File spool) throws Exception {
+        int invoices = 0;
+        try (ShardDirectory node = new ShardDirectory(root, "A", LEASE_TIMEOUT)) {
+            node.setSpool(spool.getPath(), "G", 7, true);
+            ShardDirectory.Lease lease;
+            while ((lease = node.claim()) != null) {
+                invoices += read(lease).size();
+                lease.complete(false);
+            }
+            if (node.claimAssembly()) {
+                node.cleanUp();
+            }
+        }
+        return invoices;
+    }
+
+    /* Numéros des factures du lot */
+    private static List<Integer> read(ShardDirectory.Lease lease) throws Exception {
+        List<Integer> ids = new ArrayList<>();
+        try (FragmentSource source = lease.open()) {
+            ByteBuffer fragment;
+            while ((fragment = source.next()) != null) {
+                Matcher m = ID.matcher(StandardCharsets.UTF_8.decode(fragment));
+                if (m.find()) {
+                    ids.add(Integer.parseInt(m.group(1)));
+                }
+            }
+        }
+        return ids;
+    }
+
+    private static void waitIndexed(ShardDirectory node) throws Exception {
+        while (node.getShardCount() < 0) {
+            Thread.sleep(50);
+        }
+    }
+
+    private static void writeSpool(File spool, int invoices) throws IOException {
+        StringBuilder content = new StringBuilder("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<R>\n");
+        for (int i = 0; i < invoices; i++) {
+            content.append("  <G><ID>").append(i).append("</ID><Name>Facture n°").append(i).append("</Name></G>\n");
+        }
+        Files.write(spool.toPath(), content.append("</R>\n").toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void clean(File root) throws IOException {
+        if (root.exists()) {
+            try (var files = Files.walk(root.toPath())) {
+                files.sorted(Collections.reverseOrder()).forEach(path -> path.toFile().delete());
+            }
+        }
+    }
+
+    private static void check(String name, boolean condition, String message) {
+        if (!condition) {
+            System.out.println("FAIL " + name + ": " + message);
+            failures++;
+        }
+    }
+}
@@ -0,0 +1,312 @@
+/*
+ * Copyright (c) 2025 NOMANA-IT and/or its affiliates.
+ * All rights reserved. Use is subject to license terms.
+ *
+ * @author fblettner
+ */
+
+import custom.resources.FragmentSource;
+import custom.resources.SpoolSplitter;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import org.w3c.dom.Attr;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+/**
+ * Checks the StAX spool splitter against the DOM
+ *
+ * Each fragment returned by SpoolSplitter must hold the same element as
+ * getElementsByTagName on the whole spool, in the same order. Burst
+ * elements nested in another one stay in the enclosing fragment. Namespace
+ * declarations copied on the fragment root, comments and CDATA boundaries
+ * are not compared. The sample spools and the comparison are shared with
+ * the checks of the other spool readers.
+ *
+ * Usage: java SplitterCheck [work directory]
+ */
+public class SplitterCheck {
+
+    private static int failures;
+
+    public static void main(String[] args) throws Exception {
+        File dir = workDir(args, "splitter-check");
+        for (Spool spool : spools()) {
+            File file = spool.write(dir);
+            compare(spool.name + " / SpoolSplitter", new SpoolSplitter(file.getPath(), spool.burstKey),
+                    spool.expected());
+        }
+        exit("SplitterCheck");
+    }
+
+    /**
+     * Sample spool and its burst element
+     */
+    static final class Spool {
+        final String name;
+        final String burstKey;
+        final byte[] content;
+
+        Spool(String name, String burstKey, byte[] content) {
+            this.name = name;
+            this.burstKey = burstKey;
+            this.content = content;
+        }
+
+        File write(File dir) throws IOException {
+            File file = new File(dir, name + ".xml");
+            Files.write(file.toPath(), content);
+            return file;
+        }
+
+        /* Eléments burst de premier niveau, dans l'ordre du document */
+        List<Element> expected() throws Exception {
+            List<Element> elements = new ArrayList<>();
+            NodeList list = parse(content).getElementsByTagName(burstKey);
+            for (int i = 0; i < list.getLength(); i++) {
+                Element element = (Element) list.item(i);
+                boolean nested = false;
+                for (Node parent = element.getParentNode(); parent != null; parent = parent.getParentNode()) {
+                    if (parent instanceof Element && burstKey.equals(((Element) parent).getTagName())) {
+                        nested = true;
+                    }
+                }
+                if (!nested) {
+                    elements.add(element);
+                }
+            }
+            if (elements.isEmpty()) {
+                fail(name, "no " + burstKey + " element in the spool");
+            }
+            return elements;
+        }
+    }
+
+    /**
+     * @return spools with namespaces, CDATA, comments, nested burst elements
+     *         and non-ASCII text
+     */
+    static List<Spool> spools() {
+        List<Spool> spools = new ArrayList<>();
+        spools.add(new Spool("simple", "G", utf8(simpleSpool())));
+        spools.add(new Spool("edge-cases", "G", utf8(edgeCaseSpool())));
+        spools.add(new Spool("namespaces", "inv:Invoice", utf8(namespaceSpool())));
+        spools.add(new Spool("random", "G", utf8(randomSpool(new Random(42), 2000))));
+        return spools;
+    }
+
+    static File workDir(String[] args, String name) throws IOException {
+        File dir = new File(args.length > 0 ? args[0] : System.getProperty("java.io.tmpdir"), name);
+        Files.createDirectories(dir.toPath());
+        return dir;
+    }
+
+    /**
+     * Reads every fragment of the source and compares it with the element
+     * expected at its position
+     */
+    static void compare(String name, FragmentSource source, List<Element> expected) throws Exception {
+        int index = 0;
+        try (source) {
+            ByteBuffer fragment;
+            while ((fragment = source.next()) != null) {
+                byte[] bytes = new byte[fragment.remaining()];
+                fragment.get(bytes);
+                if (index >= expected.size()) {
+                    fail(name, "extra fragment " + index);
+                } else {
+                    String difference = difference(expected.get(index), parse(bytes).getDocumentElement(), "/");
+                    if (difference != null) {
+                        fail(name, "fragment " + index + " differs at " + difference);
+                    }
+                }
+                index++;
+            }
+        }
+        if (index != expected.size()) {
+            fail(name, index + " fragments, " + expected.size() + " expected");
+        }
+        System.out.println("  " + name + ": " + index + " fragments");
+    }
+
+    static void fail(String name, String message) {
+        System.out.println("FAIL " + name + ": " + message);
+        failures++;
+    }
+
+    /* Résultat du contrôle, code retour 1 en cas d'échec */
+    static void exit(String check) {
+        if (failures > 0) {
+            System.out.println(check + ": " + failures + " failure(s)");
+            System.exit(1);
+        }
+        System.out.println(check + ": OK");
+    }
+
+    /* Premier écart entre deux éléments, null s'ils sont identiques */
+    private static String difference(Element expected, Element actual, String path) {
+        String here = path + expected.getTagName();
+        if (!same(expected.getNamespaceURI(), actual.getNamespaceURI())
+                || !expected.getLocalName().equals(actual.getLocalName())) {
+            return here + " (element " + actual.getTagName() + ")";
+        }
+        if (!attributes(expected).equals(attributes(actual))) {
+            return here + " (attributes " + attributes(actual) + ")";
+        }
+        List<Node> expectedChildren = children(expected);
+        List<Node> actualChildren = children(actual);
+        if (expectedChildren.size() != actualChildren.size()) {
+            return here + " (" + actualChildren.size() + " children, " + expectedChildren.size() + " expected)";
+        }
+        for (int i = 0; i < expectedChildren.size(); i++) {
+            Node e = expectedChildren.get(i);
+            Node a = actualChildren.get(i);
+            if (e.getNodeType() != a.getNodeType()) {
+                return here + " (child " + i + ")";
+            }
+            if (e instanceof Element) {
+                String difference = difference((Element) e, (Element) a, here + "/");
+                if (difference != null) {
+                    return difference;
+                }
+            } else if (!e.getNodeValue().equals(a.getNodeValue())) {
+                return here + " (text \"" + a.getNodeValue() + "\")";
+            }
+        }
+        return null;
+    }
+
+    /* Attributs hors déclarations d'espaces de noms */
+    private static Map<String, String> attributes(Element element) {
+        Map<String, String> attributes = new TreeMap<>();
+        NamedNodeMap map = element.getAttributes();
+        for (int i = 0; i < map.getLength(); i++) {
+            Attr attr = (Attr) map.item(i);
+            if (!"http://www.w3.org/2000/xmlns/".equals(attr.getNamespaceURI())) {
+                attributes.put("{" + attr.getNamespaceURI() + "}" + attr.getLocalName(), attr.getValue());
+            }
+        }
+        return attributes;
+    }
+
+    /* Eléments et textes fusionnés, sans commentaires ni instructions */
+    private static List<Node> children(Element element) {
+        List<Node> children = new ArrayList<>();
+        for (Node child = element.getFirstChild(); child != null; child = child.getNextSibling()) {
+            if (child instanceof Element || child.getNodeType() == Node.TEXT_NODE) {
+                children.add(child);
+            }
+        }
+        return children;
+    }
+
+    private static Document parse(byte[] content) throws Exception {
+        // DOM du JDK : le parseur Oracle de lib/ ne retrouve pas les noms préfixés
+        DocumentBuilderFactory factory = DocumentBuilderFactory.newDefaultInstance();
+        factory.setNamespaceAware(true);
+        factory.setCoalescing(true);
+        factory.setIgnoringComments(true);
+        DocumentBuilder builder = factory.newDocumentBuilder();
+        Document doc = builder.parse(new ByteArrayInputStream(content));
+        removeInstructions(doc.getDocumentElement());
+        doc.normalizeDocument();
+        return doc;
+    }
+
+    /* Les instructions de traitement coupent les textes : retirées avant fusion */
+    private static void removeInstructions(Node node) {
+        Node child = node.getFirstChild();
+        while (child != null) {
+            Node next = child.getNextSibling();
+            if (child.getNodeType() == Node.PROCESSING_INSTRUCTION_NODE) {
+                node.removeChild(child);
+            } else {
+                removeInstructions(child);
+            }
+            child = next;
+        }
+    }
+
+    private static boolean same(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    private static byte[] utf8(String spool) {
+        return spool.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String simpleSpool() {
+        StringBuilder spool = new StringBuilder("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<R>\n");
+        for (int i = 0; i < 10; i++) {
+            spool.append("  <G><ID>").append(i).append("</ID><Amount>").append(i * 10).append("</Amount></G>\n");
+        }
+        return spool.append("</R>\n").toString();
+    }
+
+    private static String edgeCaseSpool() {
+        return "\uFEFF<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+                + "<!-- <G>commentaire avant la racine</G> -->\n"
+                + "<?spool version=\"2\"?>\n"
+                + "<R a=\"x > y\">\n"
+                + "  <Header><GG>pas un burst</GG><G2/></Header>\n"
+                + "  <G/>\n"
+                + "  <G id=\"1\" note='apostrophe \" dans un attribut'>\n"
+                + "    <Name>Société Générale &amp; fils &lt;SA&gt; &#233;</Name>\n"
+                + "    <![CDATA[texte <G> et </G> en CDATA]]>\n"
+                + "    <!-- </G> dans un commentaire -->\n"
+                + "    <?pi </G>?>\n"
+                + "    <G><ID>imbriqué</ID></G>\n"
+                + "  </G>\n"
+                + "  <Group><G id=\"2\">plus profond</G></Group>\n"
+                + "  <G\n    id=\"3\"\n  >€ 日本語 😀</G >\n"
+                + "</R>\n";
+    }
+
+    private static String namespaceSpool() {
+        StringBuilder spool = new StringBuilder("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+        spool.append("<Root xmlns=\"urn:default\" xmlns:inv=\"urn:invoice\" xmlns:cbc=\"urn:cbc\">\n");
+        spool.append("  <inv:Batch xmlns:ext=\"urn:ext\">\n");
+        for (int i = 0; i < 5; i++) {
+            spool.append("    <inv:Invoice cbc:type=\"380\"><cbc:ID>").append(i)
+                    .append("</cbc:ID><Line ext:code=\"A\">x</Line></inv:Invoice>\n");
+        }
+        spool.append("  </inv:Batch>\n");
+        spool.append("  <inv:Invoice xmlns:cbc=\"urn:cbc2\"><cbc:ID>redéclaré</cbc:ID></inv:Invoice>\n");
+        return spool.append("</Root>\n").toString();
+    }
+
+    /* Spool généré : tailles, imbrications et caractères variés */
+    private static String randomSpool(Random random, int count) {
+        StringBuilder spool = new StringBuilder("<?xml version=\"1.0\"?>\n<R>");
+        String[] texts = { "abc", "Ünïcödé", "a &amp; b", "1 &lt; 2", "<![CDATA[<G>]]>", "", "  " };
+        for (int i = 0; i < count; i++) {
+            if (random.nextInt(10) == 0) {
+                spool.append("<!-- ").append(i).append(" -->");
+            }
+            spool.append("<G n=\"").append(i).append("\">");
+            int lines = random.nextInt(20);
+            for (int l = 0; l < lines; l++) {
+                spool.append("<L>").append(texts[random.nextInt(texts.length)]).append("</L>");
+                if (random.nextInt(50) == 0) {
+                    spool.append("<G><L>imbriqué</L></G>");
+                }
+            }
+            spool.append("</G>\n");
+        }
+        return spool.append("</R>").toString();
+    }
+}
@@ -0,0 +1,27 @@
+#!/bin/bash
+# Run the scripted checks of the spool splitters and of the shared shard directory
+# Usage: ./test/run_checks.sh [work directory]
+
+cd "$(dirname "$0")/.."
+
+WORK_DIR="${1:-$(mktemp -d)}"
+CHECKS_DIR="$WORK_DIR/classes"
+
+# Build the project, then the checks against it
+./test/build_modern.sh > /dev/null || exit 1
+rm -rf "$CHECKS_DIR"
+mkdir -p "$CHECKS_DIR"
+javac -encoding UTF-8 -d "$CHECKS_DIR" -cp "build:lib/*" test/checks/*.java || exit 1
+
+STATUS=0
+for CHECK in SplitterCheck MappedSplitterCheck GzipSplitterCheck ShardCheck; do
+    echo "Running $CHECK..."
+    java -cp "$CHECKS_DIR:build:lib/*" "$CHECK" "$WORK_DIR" || STATUS=1
+done
+
+if [ $STATUS -eq 0 ]; then
+    echo "All checks passed"
+else
+    echo "Some checks failed"
+fi
+exit $STATUS